@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of analyzed query tokens. Analysis (lower-casing, stopword removal
+ * and stemming) is the most expensive part of query parsing, and query
+ * tokens repeat heavily within and across queries, so the result of
+ * {@link QryEval#tokenizeQuery(String)} is remembered for each raw token.
+ *
+ * The cache is bounded and can be used by several threads without locking.
+ * It keeps two generations of entries. New entries go into the young
+ * generation; when it is full it becomes the old generation and the previous
+ * old generation is dropped. A hit in the old generation copies the entry
+ * back into the young one, so tokens that are still in use survive.
+ *
+ */
+public class AnalyzerCache {
+
+	private final int maxEntries;
+	private volatile ConcurrentHashMap<String, String[]> young = new ConcurrentHashMap<String, String[]>();
+	private volatile ConcurrentHashMap<String, String[]> old = new ConcurrentHashMap<String, String[]>();
+
+	/**
+	 * @param maxEntries
+	 *            The maximum number of tokens to remember, at least 2.
+	 */
+	public AnalyzerCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Analyze a raw query token.
+	 *
+	 * @param token
+	 *            The raw token.
+	 * @return The analyzed terms, which may be empty if the token is a
+	 *         stopword. The array must not be modified.
+	 * @throws IOException
+	 */
+	public String[] analyze(String token) throws IOException {
+
+		ConcurrentHashMap<String, String[]> young = this.young;
+		String[] terms = young.get(token);
+		if (terms != null) {
+			Metrics.ANALYZER_CACHE_HITS.increment();
+			return terms;
+		}
+
+		terms = this.old.get(token);
+		if (terms == null) {
+			Metrics.ANALYZER_CACHE_MISSES.increment();
+			terms = QryEval.tokenizeQuery(token);
+		} else {
+			Metrics.ANALYZER_CACHE_HITS.increment();
+		}
+
+		young.put(token, terms);
+		if (young.size() > this.maxEntries / 2)
+			rotate(young);
+		return terms;
+	}
+
+	/**
+	 * Make the young generation old, unless another thread already has.
+	 */
+	private synchronized void rotate(ConcurrentHashMap<String, String[]> full) {
+		if (this.young == full) {
+			this.old = full;
+			this.young = new ConcurrentHashMap<String, String[]>();
+		}
+	}
+}
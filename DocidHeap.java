@@ -0,0 +1,143 @@
+/**
+ * A min-heap of query arguments keyed by their current docid, for merging
+ * the arguments of a union (SYN, OR) in docid order. Finding the smallest
+ * docid takes constant time and moving an argument to its next docid takes
+ * O(log k) time for k arguments, instead of a scan over every argument for
+ * every document.
+ *
+ * The heap holds argument numbers; the caller keeps the arguments. Each
+ * argument's docid is cached in the heap, so after moving the argument on
+ * top the caller reports its new docid with {@link #updateTop(int)}.
+ *
+ */
+public class DocidHeap {
+
+	private final int[] args;
+	private final int[] docids;
+	private int size = 0;
+
+	/**
+	 * @param capacity
+	 *            The largest number of arguments in the heap.
+	 */
+	public DocidHeap(int capacity) {
+		this.args = new int[capacity];
+		this.docids = new int[capacity];
+	}
+
+	/**
+	 * @return The number of arguments in the heap.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Add an argument.
+	 *
+	 * @param arg
+	 *            The argument number.
+	 * @param docid
+	 *            Its current docid.
+	 */
+	public void add(int arg, int docid) {
+		int i = this.size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (this.docids[parent] <= docid)
+				break;
+			this.args[i] = this.args[parent];
+			this.docids[i] = this.docids[parent];
+			i = parent;
+		}
+		this.args[i] = arg;
+		this.docids[i] = docid;
+	}
+
+	/**
+	 * @return The argument with the smallest docid.
+	 */
+	public int top() {
+		return this.args[0];
+	}
+
+	/**
+	 * @return The smallest docid.
+	 */
+	public int topDocid() {
+		return this.docids[0];
+	}
+
+	/**
+	 * Tell the heap that the argument on top has moved to a new docid.
+	 *
+	 * @param docid
+	 *            The new docid.
+	 */
+	public void updateTop(int docid) {
+		siftDown(this.args[0], docid);
+	}
+
+	/**
+	 * Remove the argument on top.
+	 */
+	public void pop() {
+		this.size--;
+		if (this.size > 0)
+			siftDown(this.args[this.size], this.docids[this.size]);
+	}
+
+	/**
+	 * Remove every argument.
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * Find every argument whose docid is the smallest docid.
+	 *
+	 * @param matches
+	 *            Set to the argument numbers; it must have room for every
+	 *            argument in the heap.
+	 * @param stack
+	 *            Scratch space, as large as matches.
+	 * @return The number of arguments found.
+	 */
+	public int topArgs(int[] matches, int[] stack) {
+		if (this.size == 0)
+			return 0;
+
+		int docid = this.docids[0];
+		int found = 0;
+		int depth = 0;
+		stack[depth++] = 0;
+
+		while (depth > 0) {
+			int i = stack[--depth];
+			matches[found++] = this.args[i];
+			for (int child = 2 * i + 1; child <= 2 * i + 2; child++)
+				if (child < this.size && this.docids[child] == docid)
+					stack[depth++] = child;
+		}
+		return found;
+	}
+
+	private void siftDown(int arg, int docid) {
+		int i = 0;
+		int half = this.size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < this.size && this.docids[right] < this.docids[child])
+				child = right;
+			if (docid <= this.docids[child])
+				break;
+			this.args[i] = this.args[child];
+			this.docids[i] = this.docids[child];
+			i = child;
+		}
+		this.args[i] = arg;
+		this.docids[i] = docid;
+	}
+}
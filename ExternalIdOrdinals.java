@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+
+/**
+ * The rank of each document's external id in sorted order, indexed by
+ * internal docid. Comparing two ordinals gives the same answer as comparing
+ * the two external id strings, so ties in a ranking can be broken by external
+ * id without reading stored fields.
+ *
+ * The ordinals are read from the term dictionary of the externalId field,
+ * whose terms are already sorted. External ids are compared in Unicode code
+ * point order, which is the same as String.compareTo for the ASCII ids in our
+ * collections.
+ *
+ */
+public class ExternalIdOrdinals {
+
+	private static final String FIELD = "externalId";
+
+	private int[] ordinals;
+
+	/**
+	 * Compute the ordinals of every document in the index.
+	 *
+	 * @param reader
+	 *            The index reader.
+	 * @throws IOException
+	 */
+	public ExternalIdOrdinals(IndexReader reader) throws IOException {
+
+		// Documents without an external id sort after all others.
+
+		this.ordinals = new int[reader.maxDoc()];
+		Arrays.fill(this.ordinals, Integer.MAX_VALUE);
+
+		Terms terms = MultiFields.getTerms(reader, FIELD);
+
+		if (terms == null) {
+			fromStoredFields(reader);
+			return;
+		}
+
+		TermsEnum ithTerm = terms.iterator(null);
+		DocsEnum docs = null;
+
+		for (int ord = 0; ithTerm.next() != null; ord++) {
+			docs = ithTerm.docs(MultiFields.getLiveDocs(reader), docs,
+					DocsEnum.FLAG_NONE);
+			while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS)
+				this.ordinals[docs.docID()] = ord;
+		}
+	}
+
+	/**
+	 * Ordinals that were computed earlier, for example by
+	 * {@link PostingsSnapshotWriter}.
+	 *
+	 * @param ordinals
+	 *            The ordinal of every document, indexed by docid.
+	 */
+	ExternalIdOrdinals(int[] ordinals) {
+		this.ordinals = ordinals;
+	}
+
+	/**
+	 * If the external id is stored but not indexed, read it once from every
+	 * document and sort.
+	 */
+	private void fromStoredFields(IndexReader reader) throws IOException {
+
+		final String[] ids = new String[reader.maxDoc()];
+		Integer[] docids = new Integer[reader.maxDoc()];
+
+		for (int i = 0; i < ids.length; i++) {
+			Document d = reader.document(i);
+			ids[i] = d.get(FIELD);
+			docids[i] = i;
+		}
+
+		Arrays.sort(docids, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer arg0, Integer arg1) {
+				if (ids[arg0] == null || ids[arg1] == null)
+					return (ids[arg0] == null ? 1 : 0) - (ids[arg1] == null ? 1 : 0);
+				return ids[arg0].compareTo(ids[arg1]);
+			}
+
+		});
+
+		for (int ord = 0; ord < docids.length; ord++)
+			if (ids[docids[ord]] != null)
+				this.ordinals[docids[ord]] = ord;
+	}
+
+	/**
+	 * @param docid
+	 *            An internal document id.
+	 * @return The rank of the document's external id in sorted order.
+	 */
+	public int get(int docid) {
+		return this.ordinals[docid];
+	}
+
+	/**
+	 * @return The number of documents.
+	 */
+	public int size() {
+		return this.ordinals.length;
+	}
+}
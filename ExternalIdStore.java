@@ -0,0 +1,400 @@
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The external ids of all documents, loaded once so that they can be looked
+ * up without touching the index. The ids are packed, UTF-8 encoded, into a
+ * single byte array in docid order, with an offsets array that gives the
+ * start of each document's id, so internal to external lookup is O(1). An
+ * open addressing hash table of docids gives external to internal lookup.
+ *
+ * The store also holds the {@link ExternalIdOrdinals} of the documents,
+ * which are computed while the ids are read from the term dictionary.
+ *
+ * The store can be saved to a file and reloaded, which is much faster than
+ * reading the ids from a large index; the ordinals are saved with it, so a
+ * reload does not read the index at all. A saved store is only used if it
+ * was written for an index with the same version and number of documents.
+ *
+ */
+public class ExternalIdStore {
+
+	private static final String FIELD = "externalId";
+	private static final int MAGIC = 0x45494432; // "EID2"
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// Document d's id is bytes[offsets[d] .. offsets[d + 1]). A document
+	// without an id has an empty range.
+
+	private byte[] bytes;
+	private int[] offsets;
+
+	// Hash table of docid + 1, 0 marks an empty slot.
+
+	private int[] table;
+
+	// Null for a store that was read from a postings snapshot, which keeps
+	// the ordinals separately.
+
+	private ExternalIdOrdinals ordinals;
+
+	/**
+	 * Load the external ids from the index.
+	 *
+	 * @param reader
+	 *            The index reader.
+	 * @throws IOException
+	 */
+	public ExternalIdStore(IndexReader reader) throws IOException {
+
+		int maxDoc = reader.maxDoc();
+		this.offsets = new int[maxDoc + 1];
+
+		Terms terms = MultiFields.getTerms(reader, FIELD);
+
+		if (terms == null) {
+			fromStoredFields(reader);
+			this.ordinals = new ExternalIdOrdinals(reader);
+		} else {
+
+			// Two passes over the term dictionary: the first finds the length
+			// of each document's id, the second copies the ids into place
+			// and numbers them in term order. Documents without an external
+			// id sort after all others.
+
+			int[] lengths = new int[maxDoc];
+			TermsEnum ithTerm = terms.iterator(null);
+			DocsEnum docs = null;
+
+			while (ithTerm.next() != null) {
+				docs = ithTerm.docs(MultiFields.getLiveDocs(reader), docs,
+						DocsEnum.FLAG_NONE);
+				while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS)
+					lengths[docs.docID()] = ithTerm.term().length;
+			}
+
+			for (int d = 0; d < maxDoc; d++)
+				this.offsets[d + 1] = this.offsets[d] + lengths[d];
+
+			this.bytes = new byte[this.offsets[maxDoc]];
+			int[] ordinals = new int[maxDoc];
+			Arrays.fill(ordinals, Integer.MAX_VALUE);
+			ithTerm = terms.iterator(ithTerm);
+
+			for (int ord = 0; ithTerm.next() != null; ord++) {
+				BytesRef term = ithTerm.term();
+				docs = ithTerm.docs(MultiFields.getLiveDocs(reader), docs,
+						DocsEnum.FLAG_NONE);
+				while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+					System.arraycopy(term.bytes, term.offset, this.bytes,
+							this.offsets[docs.docID()], term.length);
+					ordinals[docs.docID()] = ord;
+				}
+			}
+			this.ordinals = new ExternalIdOrdinals(ordinals);
+		}
+
+		buildTable();
+	}
+
+	/**
+	 * Read the external id stored with every document, for indexes where the
+	 * field is stored but not indexed.
+	 */
+	private void fromStoredFields(IndexReader reader) throws IOException {
+
+		int maxDoc = reader.maxDoc();
+		byte[][] ids = new byte[maxDoc][];
+
+		for (int d = 0; d < maxDoc; d++) {
+			Document doc = reader.document(d);
+			String id = doc.get(FIELD);
+			ids[d] = (id == null) ? new byte[0] : id.getBytes(UTF8);
+			this.offsets[d + 1] = this.offsets[d] + ids[d].length;
+		}
+
+		this.bytes = new byte[this.offsets[maxDoc]];
+		for (int d = 0; d < maxDoc; d++)
+			System.arraycopy(ids[d], 0, this.bytes, this.offsets[d],
+					ids[d].length);
+	}
+
+	/**
+	 * Build the external to internal hash table. If several documents have
+	 * the same external id, the lowest docid is kept.
+	 */
+	private void buildTable() {
+
+		int maxDoc = this.offsets.length - 1;
+		int size = Integer.highestOneBit(Math.max(2, maxDoc) * 2 - 1) << 1;
+		this.table = new int[size];
+
+		for (int d = 0; d < maxDoc; d++) {
+			int start = this.offsets[d];
+			int length = this.offsets[d + 1] - start;
+			if (length == 0)
+				continue;
+
+			int slot = hash(this.bytes, start, length) & (size - 1);
+			while (this.table[slot] != 0
+					&& !matches(this.table[slot] - 1, this.bytes, start, length))
+				slot = (slot + 1) & (size - 1);
+
+			if (this.table[slot] == 0)
+				this.table[slot] = d + 1;
+		}
+	}
+
+	private static int hash(byte[] b, int start, int length) {
+		int h = 0;
+		for (int i = start; i < start + length; i++)
+			h = 31 * h + b[i];
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return true if document d's id is the given byte range.
+	 */
+	private boolean matches(int d, byte[] b, int start, int length) {
+		int s = this.offsets[d];
+		if (this.offsets[d + 1] - s != length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (this.bytes[s + i] != b[start + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Get the external document id of a document.
+	 *
+	 * @param docid
+	 *            The internal document id.
+	 * @return The external document id, or null if the document has none.
+	 */
+	public String getExternalDocid(int docid) {
+		int start = this.offsets[docid];
+		int length = this.offsets[docid + 1] - start;
+		if (length == 0)
+			return null;
+		return new String(this.bytes, start, length, UTF8);
+	}
+
+	/**
+	 * Get the internal document id of a document.
+	 *
+	 * @param externalId
+	 *            The external document id.
+	 * @return The internal document id, or -1 if there is no such document.
+	 */
+	public int getInternalDocid(String externalId) {
+		byte[] b = externalId.getBytes(UTF8);
+		if (b.length == 0)
+			return -1;
+
+		int mask = this.table.length - 1;
+		int slot = hash(b, 0, b.length) & mask;
+		while (this.table[slot] != 0) {
+			if (matches(this.table[slot] - 1, b, 0, b.length))
+				return this.table[slot] - 1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The ordinals of the external ids, or null if the store was
+	 *         read from a postings snapshot.
+	 */
+	public ExternalIdOrdinals getOrdinals() {
+		return this.ordinals;
+	}
+
+	/**
+	 * Load the external ids of an index, reusing a saved store if it is up
+	 * to date. If the saved store is missing or stale, the ids are read from
+	 * the index and the store is saved for next time.
+	 *
+	 * @param reader
+	 *            The index reader.
+	 * @param path
+	 *            Where the store is saved, or null to not save it.
+	 * @return The store.
+	 * @throws IOException
+	 */
+	public static ExternalIdStore open(IndexReader reader, String path)
+			throws IOException {
+
+		if (path == null)
+			return new ExternalIdStore(reader);
+
+		File file = new File(path);
+		long version = indexVersion(reader);
+
+		if (file.exists()) {
+			ExternalIdStore store = load(file, version, reader.maxDoc());
+			if (store != null)
+				return store;
+		}
+
+		ExternalIdStore store = new ExternalIdStore(reader);
+		store.save(file, version);
+		return store;
+	}
+
+	private ExternalIdStore() {
+	}
+
+	private static long indexVersion(IndexReader reader) {
+		if (reader instanceof DirectoryReader)
+			return ((DirectoryReader) reader).getVersion();
+		return -1;
+	}
+
+	/**
+	 * Save the store. The file holds a header (magic number, index version,
+	 * maxDoc, number of bytes) followed by the offsets, the ordinals and the
+	 * bytes.
+	 */
+	private void save(File file, long version) throws IOException {
+
+		int maxDoc = this.offsets.length - 1;
+		ByteBuffer header = ByteBuffer.allocate(20);
+		header.putInt(MAGIC).putLong(version).putInt(maxDoc)
+				.putInt(this.bytes.length).flip();
+
+		ByteBuffer offsetBytes = ByteBuffer.allocate(4 * this.offsets.length);
+		offsetBytes.asIntBuffer().put(this.offsets);
+
+		ByteBuffer ordinalBytes = ByteBuffer.allocate(4 * maxDoc);
+		for (int d = 0; d < maxDoc; d++)
+			ordinalBytes.putInt(this.ordinals.get(d));
+		ordinalBytes.flip();
+
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			channel.write(header);
+			channel.write(offsetBytes);
+			channel.write(ordinalBytes);
+			channel.write(ByteBuffer.wrap(this.bytes));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load a saved store.
+	 *
+	 * @return The store, or null if the file is not a store for this index.
+	 */
+	private static ExternalIdStore load(File file, long version, int maxDoc)
+			throws IOException {
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(20);
+			if (channel.read(header) != 20)
+				return null;
+			header.flip();
+
+			if (header.getInt() != MAGIC || header.getLong() != version
+					|| version == -1 || header.getInt() != maxDoc)
+				return null;
+
+			int length = header.getInt();
+			long ordinalsOffset = 20 + 4L * (maxDoc + 1);
+			long bytesOffset = ordinalsOffset + 4L * maxDoc;
+			if (channel.size() != bytesOffset + length)
+				return null;
+
+			ExternalIdStore store = new ExternalIdStore();
+
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 20,
+					4L * (maxDoc + 1));
+			store.offsets = new int[maxDoc + 1];
+			buffer.asIntBuffer().get(store.offsets);
+
+			int[] ordinals = new int[maxDoc];
+			channel.map(FileChannel.MapMode.READ_ONLY, ordinalsOffset,
+					4L * maxDoc).asIntBuffer().get(ordinals);
+			store.ordinals = new ExternalIdOrdinals(ordinals);
+
+			store.bytes = new byte[length];
+			channel.map(FileChannel.MapMode.READ_ONLY, bytesOffset, length)
+					.get(store.bytes);
+
+			store.buildTable();
+			return store;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write the ids in the layout that {@link #readFrom(ByteBuffer)} reads:
+	 * maxDoc, the number of bytes, the offsets and the bytes.
+	 *
+	 * @param out
+	 *            Where to write the ids.
+	 * @throws IOException
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(this.offsets.length - 1);
+		out.writeInt(this.bytes.length);
+		for (int offset : this.offsets)
+			out.writeInt(offset);
+		out.write(this.bytes);
+	}
+
+	/**
+	 * Read ids that were written by {@link #writeTo(DataOutput)}.
+	 *
+	 * @param in
+	 *            The ids, starting at the buffer's position.
+	 * @return The store.
+	 */
+	static ExternalIdStore readFrom(ByteBuffer in) {
+
+		in = in.duplicate();
+		int maxDoc = in.getInt();
+		int length = in.getInt();
+
+		ExternalIdStore store = new ExternalIdStore();
+		store.offsets = new int[maxDoc + 1];
+		in.asIntBuffer().get(store.offsets);
+		in.position(in.position() + 4 * (maxDoc + 1));
+		store.bytes = new byte[length];
+		in.get(store.bytes);
+
+		store.buildTable();
+		return store;
+	}
+
+	/**
+	 * @return An estimate of the memory used by the store, in bytes.
+	 */
+	public long ramBytesUsed() {
+		return this.bytes.length + 4L * this.offsets.length + 4L
+				* this.table.length
+				+ (this.ordinals == null ? 0 : 4L * this.ordinals.size());
+	}
+}
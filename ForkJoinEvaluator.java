@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.apache.lucene.index.AtomicReaderContext;
+
+/**
+ * Evaluates the arguments of a query operator, running the expensive ones
+ * as fork/join tasks so that independent subtrees of a wide query are
+ * evaluated at the same time. An argument is forked only if its estimated
+ * cost, the number of postings that it reads, is at least the threshold;
+ * cheaper arguments are evaluated by the calling thread, because a task
+ * costs more than they do. Forked subtrees fork their own arguments in the
+ * same way, and a thread that waits for a task helps run other tasks.
+ *
+ * This only affects term-at-a-time evaluation. Document-at-a-time
+ * evaluation reads all of its arguments in step and is not split. A forked
+ * argument is evaluated on the same segment as its parent (see
+ * {@link SegmentEvaluator}).
+ *
+ */
+public class ForkJoinEvaluator {
+
+	private static ForkJoinPool pool;
+	private static long threshold;
+
+	/**
+	 * Turn on parallel evaluation of arguments.
+	 *
+	 * @param threads
+	 *            The number of worker threads.
+	 * @param minCost
+	 *            The smallest estimated cost of an argument that is forked.
+	 */
+	public static void enable(int threads, long minCost) {
+		pool = new ForkJoinPool(threads);
+		threshold = minCost;
+	}
+
+	/**
+	 * @return True if arguments are evaluated in parallel.
+	 */
+	public static boolean isEnabled() {
+		return pool != null;
+	}
+
+	/**
+	 * Evaluate query arguments. The costs of the arguments are normally
+	 * estimated when the query is prepared; an argument that has no cost
+	 * yet is estimated here, with its whole subtree.
+	 *
+	 * @param args
+	 *            The arguments.
+	 * @param r
+	 *            A retrieval model that controls how the operators behave.
+	 * @return The results, in argument order.
+	 * @throws IOException
+	 */
+	public static QryResult[] evaluate(List<? extends Qryop> args,
+			final RetrievalModel r) throws IOException {
+
+		QryResult[] results = new QryResult[args.size()];
+
+		if (pool == null || args.size() < 2) {
+			for (int i = 0; i < results.length; i++)
+				results[i] = OperatorProfile.evaluate(args.get(i), r);
+			return results;
+		}
+
+		// Fork the expensive arguments, but keep the last one for this
+		// thread if every argument is expensive.
+
+		final AtomicReaderContext segment = SegmentEvaluator.current();
+		List<ForkJoinTask<QryResult>> tasks = new ArrayList<ForkJoinTask<QryResult>>();
+		int forked = 0;
+
+		for (int i = 0; i < results.length; i++) {
+			ForkJoinTask<QryResult> task = null;
+			if (forked < results.length - 1
+					&& cost(args.get(i)) >= threshold) {
+				final Qryop arg = args.get(i);
+				task = ForkJoinTask.adapt(new Callable<QryResult>() {
+
+					@Override
+					public QryResult call() throws Exception {
+						return SegmentEvaluator.callIn(segment,
+								new Callable<QryResult>() {
+
+									@Override
+									public QryResult call() throws IOException {
+										return OperatorProfile.evaluate(arg, r);
+									}
+
+								});
+					}
+
+				});
+				if (ForkJoinTask.inForkJoinPool())
+					task.fork();
+				else
+					pool.execute(task);
+				forked++;
+			}
+			tasks.add(task);
+		}
+
+		for (int i = 0; i < results.length; i++)
+			if (tasks.get(i) == null)
+				results[i] = OperatorProfile.evaluate(args.get(i), r);
+
+		for (int i = 0; i < results.length; i++)
+			if (tasks.get(i) != null)
+				results[i] = join(tasks.get(i));
+
+		return results;
+	}
+
+	private static long cost(Qryop q) throws IOException {
+		if (q.cost < 0)
+			return new QueryOptimizer().estimateCost(q);
+		return q.cost;
+	}
+
+	/**
+	 * Wait for a task, rethrowing the IOException that it failed with.
+	 */
+	private static QryResult join(ForkJoinTask<QryResult> task)
+			throws IOException {
+		try {
+			return task.join();
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		}
+	}
+}
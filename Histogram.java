@@ -0,0 +1,107 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values, such as latencies in nanoseconds,
+ * that can be updated by several threads without locking. Values are
+ * counted in buckets in the manner of HdrHistogram: every power of two is
+ * split into 32 buckets of equal width, so a quantile is accurate to within
+ * about 3% of its value, whatever the range of the values, and the
+ * histogram has a fixed size.
+ *
+ */
+public class Histogram {
+
+	// Each power of two is split into 2^SUB_BUCKET_BITS buckets.
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Count a value.
+	 *
+	 * @param value
+	 *            The value. Negative values are counted as 0.
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		this.counts.incrementAndGet(bucket(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+
+		long max;
+		while (value > (max = this.max.get())
+				&& !this.max.compareAndSet(max, value))
+			;
+	}
+
+	/**
+	 * @return The number of values counted.
+	 */
+	public long count() {
+		return this.count.get();
+	}
+
+	/**
+	 * @return The sum of the values counted.
+	 */
+	public long sum() {
+		return this.sum.get();
+	}
+
+	/**
+	 * @return The largest value counted, or 0.
+	 */
+	public long max() {
+		return this.max.get();
+	}
+
+	/**
+	 * Estimate a quantile of the values counted.
+	 *
+	 * @param q
+	 *            The quantile, between 0 and 1.
+	 * @return The largest value in the bucket that holds the quantile, which
+	 *         is at least the quantile, or 0 if nothing has been counted.
+	 */
+	public long quantile(double q) {
+		long rank = Math.max(1, (long) Math.ceil(q * count()));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += this.counts.get(b);
+			if (seen >= rank)
+				return Math.min(max(), highestValue(b));
+		}
+		return max();
+	}
+
+	/**
+	 * Values below SUB_BUCKETS have a bucket each. Above that, the bucket is
+	 * found from the position of the highest bit and the SUB_BUCKET_BITS
+	 * bits that follow it.
+	 */
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + sub) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
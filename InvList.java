@@ -4,48 +4,32 @@
  *  Its purpose is to provide a simpler view of inverted lists than
  *  Lucene's native implementation.
  *
+ *  Postings are stored as a structure of arrays: docids[n] and tfs[n]
+ *  describe the n'th posting, and its positions are the tfs[n] entries
+ *  of the shared positions array starting at offsets[n].  Nothing is
+ *  allocated per posting, and positions are never boxed.
+ *
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
 import java.util.*;
 import java.io.*;
 
-import org.apache.lucene.index.*;
-import org.apache.lucene.util.*;
-import org.apache.lucene.search.*;
-
 public class InvList {
 
-	// Utility class that makes it easier to construct postings.
-
-	public class DocPosting {
-
-		public int docid = 0;
-		public int tf = 0;
-		public int position = 0;
-		public Vector<Integer> positions = new Vector<Integer>();
-
-		public DocPosting(int d, int... locations) {
-			this.docid = d;
-			this.tf = locations.length;
-			for (int i = 0; i < locations.length; i++)
-				this.positions.add(locations[i]);
-		}
-
-		public DocPosting(int d, List<Integer> locations) {
-			this.docid = d;
-			this.tf = locations.size();
-			for (int i = 0; i < locations.size(); i++)
-				this.positions.add(locations.get(i));
-		}
-	}
-
 	// Class variables.
 
 	public int ctf = 0;
 	public int df = 0;
 	public String field;
-	public Vector<DocPosting> postings = new Vector<DocPosting>();
+
+	// Postings, in docid order. Only the first df entries of docids, tfs
+	// and offsets, and the first ctf entries of positions, are in use.
+
+	private int[] docids = new int[8];
+	private int[] tfs = new int[8];
+	private int[] offsets = new int[8];
+	private int[] positions = new int[16];
 
 	/**
 	 * Constructor. An empty inverted list. Useful for some query operators.
@@ -70,39 +54,38 @@ public class InvList {
 	 * @throws IOException
 	 */
 	public InvList(String termString, String fieldString) throws IOException {
+		this(new PostingsCursorLucene(termString, fieldString));
+	}
 
-		// Store the field name. This is used by other query operators.
-
-		this.field = new String(fieldString);
-
-		// Prepare to access the index.
-
-		BytesRef termBytes = new BytesRef(termString);
-		Term term = new Term(fieldString, termBytes);
-
-		if (QryEval.READER.docFreq(term) < 1)
-			return;
+	/**
+	 * Copy the remaining postings of a cursor into a new inverted list. This
+	 * is how inverted lists are fetched from the index: the cursor is a
+	 * {@link PostingsCursorLucene}, and copying from Lucene inverted list
+	 * format to our inverted list format allows query operators to be
+	 * insulated from the details of Lucene inverted list implementations.
+	 * 
+	 * @param cursor
+	 *            The cursor to read postings from.
+	 * @throws IOException
+	 */
+	public InvList(PostingsCursor cursor) throws IOException {
 
-		// Lookup the inverted list.
+		this.field = cursor.getField();
 
-		DocsAndPositionsEnum iList = MultiFields.getTermPositionsEnum(
-				QryEval.READER, MultiFields.getLiveDocs(QryEval.READER),
-				fieldString, termBytes);
+		while (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
 
-		// Copy from Lucene inverted list format to our inverted list
-		// format. This is a little inefficient, but allows query
-		// operators such as #SYN and #NEAR/n to be insulated from the
-		// details of Lucene inverted list implementations.
+			int tf = cursor.freq();
 
-		while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+			growPostings();
+			growPositions(tf);
 
-			int tf = iList.freq();
-			int[] positions = new int[tf];
+			this.docids[this.df] = cursor.docID();
+			this.tfs[this.df] = tf;
+			this.offsets[this.df] = this.ctf;
 
 			for (int j = 0; j < tf; j++)
-				positions[j] = iList.nextPosition();
+				this.positions[this.ctf + j] = cursor.nextPosition();
 
-			this.postings.add(new DocPosting(iList.docID(), positions));
 			this.df++;
 			this.ctf += tf;
 		}
@@ -120,20 +103,88 @@ public class InvList {
 	 */
 	public boolean appendPosting(int docid, List<Integer> positions) {
 
-		// A posting can only be appended if its docid is greater than
-		// the last docid.
+		if (!canAppend(docid))
+			return false;
+
+		int tf = positions.size();
+
+		growPostings();
+		growPositions(tf);
 
-		if ((this.df > 1) && (this.postings.get(this.df - 1).docid >= docid))
+		for (int j = 0; j < tf; j++)
+			this.positions[this.ctf + j] = positions.get(j);
+
+		addPosting(docid, tf);
+		return true;
+	}
+
+	/**
+	 * Append a posting to the posting list without boxing its positions.
+	 * Posting must be appended in docid order, otherwise this method fails.
+	 * 
+	 * @param docid
+	 *            The posting internal document id.
+	 * @param positions
+	 *            An array that holds the positions where the term occurs.
+	 * @param tf
+	 *            The number of positions to copy from the array.
+	 * @result true if the posting was added successfully, otherwise false.
+	 */
+	public boolean appendPosting(int docid, int[] positions, int tf) {
+
+		if (!canAppend(docid))
 			return false;
 
-		DocPosting p = new DocPosting(docid, positions);
+		growPostings();
+		growPositions(tf);
 
-		this.postings.add(p);
-		this.df++;
-		this.ctf += p.tf;
+		System.arraycopy(positions, 0, this.positions, this.ctf, tf);
+
+		addPosting(docid, tf);
 		return true;
 	}
 
+	/**
+	 * A posting can only be appended if its docid is greater than the last
+	 * docid.
+	 */
+	private boolean canAppend(int docid) {
+		return (this.df == 0) || (this.docids[this.df - 1] < docid);
+	}
+
+	/**
+	 * Record a posting whose positions have already been copied to the end
+	 * of the positions array.
+	 */
+	private void addPosting(int docid, int tf) {
+		this.docids[this.df] = docid;
+		this.tfs[this.df] = tf;
+		this.offsets[this.df] = this.ctf;
+		this.df++;
+		this.ctf += tf;
+	}
+
+	/**
+	 * Make room for one more posting.
+	 */
+	private void growPostings() {
+		if (this.df == this.docids.length) {
+			int length = this.docids.length * 2;
+			this.docids = Arrays.copyOf(this.docids, length);
+			this.tfs = Arrays.copyOf(this.tfs, length);
+			this.offsets = Arrays.copyOf(this.offsets, length);
+		}
+	}
+
+	/**
+	 * Make room for n more positions.
+	 */
+	private void growPositions(int n) {
+		if (this.ctf + n > this.positions.length)
+			this.positions = Arrays.copyOf(this.positions,
+					Math.max(this.positions.length * 2, this.ctf + n));
+	}
+
 	/**
 	 * Get the n'th document id from the inverted list.
 	 * 
@@ -142,7 +193,55 @@ public class InvList {
 	 * @return The internal document id.
 	 */
 	public int getDocid(int n) {
-		return this.postings.get(n).docid;
+		return this.docids[n];
+	}
+
+	/**
+	 * Find the first posting at or after index n whose docid is at least
+	 * target. The search gallops forward from n in doubling steps and then
+	 * binary searches the last step, so skipping over k postings costs
+	 * O(log k) instead of O(k).
+	 * 
+	 * @param n
+	 *            The index to start from.
+	 * @param target
+	 *            The docid to look for.
+	 * @return The index of the posting, or df if there is none.
+	 */
+	public int advance(int n, int target) {
+
+		int size = this.df;
+
+		if (n >= size || this.docids[n] >= target)
+			return n;
+
+		// Gallop until docids[hi] >= target or the end of the list.
+
+		int lo = n;
+		int step = 1;
+		int hi = n + 1;
+
+		while (hi < size && this.docids[hi] < target) {
+			lo = hi;
+			step <<= 1;
+			hi = lo + step;
+		}
+
+		if (hi > size)
+			hi = size;
+
+		// docids[lo] < target, so binary search (lo, hi].
+
+		lo++;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.docids[mid] < target)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+
+		return lo;
 	}
 
 	/**
@@ -153,7 +252,30 @@ public class InvList {
 	 * @return The document's term frequency.
 	 */
 	public int getTf(int n) {
-		return this.postings.get(n).tf;
+		return this.tfs[n];
+	}
+
+	/**
+	 * Get the i'th position in the n'th document of the inverted list.
+	 * 
+	 * @param n
+	 *            The index of the requested document.
+	 * @param i
+	 *            The index of the requested position, less than getTf(n).
+	 * @return The position.
+	 */
+	public int getPosition(int n, int i) {
+		return this.positions[this.offsets[n] + i];
+	}
+
+	/**
+	 * Return a cursor over this inverted list, so that it can be consumed in
+	 * the same way as lists that are read lazily from the index.
+	 * 
+	 * @return A new cursor, positioned before the first posting.
+	 */
+	public PostingsCursor cursor() {
+		return new PostingsCursorInvList(this);
 	}
 
 	/**
@@ -164,12 +286,11 @@ public class InvList {
 		System.out.println("df:  " + this.df + ", ctf: " + this.ctf);
 
 		for (int i = 0; i < this.df; i++) {
-			System.out.print("docid:  " + this.postings.elementAt(i).docid
-					+ ", tf: " + this.postings.elementAt(i).tf + ", locs: ");
+			System.out.print("docid:  " + getDocid(i) + ", tf: " + getTf(i)
+					+ ", locs: ");
 
-			for (int j = 0; j < this.postings.elementAt(i).tf; j++) {
-				System.out.print(this.postings.elementAt(i).positions
-						.elementAt(j) + " ");
+			for (int j = 0; j < getTf(i); j++) {
+				System.out.print(getPosition(i, j) + " ");
 			}
 
 			System.out.println();
@@ -0,0 +1,202 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures end-to-end query latency and throughput, for example on an index
+ * and query sets from {@link SyntheticIndexWriter}. The index and the
+ * evaluation options are configured by a QryEval parameter file; each query
+ * file is one query shape, named after the file.
+ *
+ * Every query of a file is evaluated as QryEval evaluates it, from parsing
+ * to the formatted output entries, which are discarded. The queries are
+ * first run for warmupRounds rounds, which are not measured, and then for
+ * rounds measured rounds, by the number of threads in the threads
+ * parameter. The result cache is turned off, because every query would be
+ * answered by it after the first round.
+ *
+ * For each shape, and for all shapes together, the driver prints the
+ * throughput in queries per second and the 50th, 95th and 99th percentile
+ * and maximum latency in milliseconds, over the queries that were evaluated
+ * without an error. The number of queries that failed is printed with
+ * them, and the first failure of each round is printed to stderr. The
+ * metrics are exported at the end, if the parameter file asks for them.
+ *
+ */
+public class MacroBenchmark {
+
+	/**
+	 * @param args
+	 *            The parameter file, followed by one or more query files.
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 2) {
+			System.err.println("Usage:  java MacroBenchmark parameterFile "
+					+ "queryFile...");
+			System.exit(1);
+		}
+
+		Map<String, String> params = QryEval.readParameters(args[0]);
+		RetrievalModel r = QryEval.initialize(params);
+		QryEval.RESULT_CACHE = null;
+
+		int threads = 1;
+		if (params.containsKey("threads"))
+			threads = Integer.parseInt(params.get("threads"));
+		int warmupRounds = 1;
+		if (params.containsKey("warmupRounds"))
+			warmupRounds = Integer.parseInt(params.get("warmupRounds"));
+		int rounds = 3;
+		if (params.containsKey("rounds"))
+			rounds = Integer.parseInt(params.get("rounds"));
+
+		System.out.printf("%-12s %8s %8s %10s %9s %9s %9s %9s%n", "shape",
+				"queries", "errors", "q/s", "p50 ms", "p95 ms", "p99 ms",
+				"max ms");
+
+		List<long[]> all = new ArrayList<long[]>();
+		long allNanos = 0;
+
+		for (int i = 1; i < args.length; i++) {
+			String shape = new File(args[i]).getName().replaceFirst(
+					"\\.[^.]*$", "");
+			List<String> queries = readQueries(args[i]);
+			if (queries.isEmpty())
+				continue;
+
+			for (int j = 0; j < warmupRounds; j++)
+				run(queries, r, threads, new long[queries.size()]);
+
+			long[] latencies = new long[queries.size() * rounds];
+			long nanos = 0;
+			for (int j = 0; j < rounds; j++) {
+				long[] round = new long[queries.size()];
+				nanos += run(queries, r, threads, round);
+				System.arraycopy(round, 0, latencies, j * round.length,
+						round.length);
+			}
+
+			print(shape, latencies, nanos);
+			all.add(latencies);
+			allNanos += nanos;
+		}
+
+		if (all.size() > 1) {
+			int count = 0;
+			for (long[] latencies : all)
+				count += latencies.length;
+			long[] latencies = new long[count];
+			int offset = 0;
+			for (long[] shape : all) {
+				System.arraycopy(shape, 0, latencies, offset, shape.length);
+				offset += shape.length;
+			}
+			print("all", latencies, allNanos);
+		}
+
+		SegmentEvaluator.shutdown();
+		Metrics.stopExport();
+	}
+
+	private static List<String> readQueries(String path) throws IOException {
+		List<String> queries = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		String query;
+		while ((query = reader.readLine()) != null)
+			if (!query.trim().isEmpty())
+				queries.add(query);
+		reader.close();
+		return queries;
+	}
+
+	/**
+	 * Evaluate every query once. A query that throws is counted as a query
+	 * error and skipped.
+	 *
+	 * @param latencies
+	 *            Set to the latency of each query, in nanoseconds, or -1 if
+	 *            the query failed.
+	 * @return The elapsed time, in nanoseconds.
+	 */
+	private static long run(final List<String> queries,
+			final RetrievalModel r, int threads, final long[] latencies)
+			throws InterruptedException {
+
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicBoolean failed = new AtomicBoolean();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+
+		for (int i = 0; i < threads; i++)
+			pool.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < queries.size()) {
+						long queryStart = System.nanoTime();
+						try {
+							QryEval.outputEntry(queries.get(i), r);
+							latencies[i] = System.nanoTime() - queryStart;
+						} catch (RuntimeException e) {
+							latencies[i] = -1;
+							Metrics.QUERY_ERRORS.increment();
+							if (failed.compareAndSet(false, true)) {
+								System.err.println("Query failed: "
+										+ queries.get(i));
+								e.printStackTrace();
+							}
+						}
+					}
+				}
+
+			});
+
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		return System.nanoTime() - start;
+	}
+
+	private static void print(String shape, long[] latencies, long nanos) {
+
+		// Failed queries are marked -1 and sort first.
+
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		int errors = 0;
+		while (errors < sorted.length && sorted[errors] < 0)
+			errors++;
+		sorted = Arrays.copyOfRange(sorted, errors, sorted.length);
+
+		if (sorted.length == 0) {
+			System.out.printf("%-12s %8d %8d%n", shape, latencies.length,
+					errors);
+			return;
+		}
+		System.out.printf("%-12s %8d %8d %10.1f %9.3f %9.3f %9.3f %9.3f%n",
+				shape, latencies.length, errors, sorted.length * 1e9 / nanos,
+				percentile(sorted, 0.50), percentile(sorted, 0.95),
+				percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+	}
+
+	/**
+	 * @return The p'th percentile of sorted latencies, by the nearest-rank
+	 *         method, in milliseconds.
+	 */
+	private static double percentile(long[] sorted, double p) {
+		int rank = (int) Math.ceil(p * sorted.length);
+		return sorted[Math.max(0, rank - 1)] / 1e6;
+	}
+}
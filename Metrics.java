@@ -0,0 +1,367 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The operational metrics of the process: counters, latency histograms and
+ * gauges, registered under Prometheus-style names. Counters and histograms
+ * are updated without locking, so they can be used on hot paths by any
+ * thread.
+ *
+ * The metrics can be written to a file in the Prometheus text format and to
+ * a file in JSON, at the end of a run (the metricsPath and metricsJsonPath
+ * parameters) and also every metricsInterval seconds while it runs. A file
+ * is replaced atomically, so a reader never sees it half written.
+ * Histograms are exported as summaries with the 0.5, 0.9, 0.95, 0.99 and
+ * 0.999 quantiles.
+ *
+ */
+public class Metrics {
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.95, 0.99, 0.999 };
+	private static final String[] QUANTILE_NAMES = { "p50", "p90", "p95",
+			"p99", "p999" };
+
+	private static final Map<String, Metric> REGISTRY = new LinkedHashMap<String, Metric>();
+
+	private static String prometheusPath;
+	private static String jsonPath;
+	private static ScheduledExecutorService exporter;
+
+	public static final Counter QUERIES = counter("qryeval_queries_total",
+			"Queries evaluated.");
+
+	public static final Counter QUERY_ERRORS = counter(
+			"qryeval_query_errors_total", "Queries that failed.");
+
+	public static final Histogram QUERY_LATENCY = histogram(
+			"qryeval_query_latency_seconds",
+			"Time to parse, evaluate and format a query.");
+
+	public static final Histogram PARSE_TIME = histogram(
+			"qryeval_parse_seconds", "Time to parse and optimize a query.");
+
+	public static final Counter OUTPUT_ROWS = counter(
+			"qryeval_output_rows_total", "Result entries written.");
+
+	public static final Counter POSTINGS_DECODED = counter(
+			"qryeval_postings_decoded_total",
+			"Postings decoded from compressed inverted lists.");
+
+	public static final Counter POSITIONS_DECODED = counter(
+			"qryeval_positions_decoded_total",
+			"Positions decoded from compressed inverted lists.");
+
+	public static final Counter POSTINGS_CACHE_HITS = counter(
+			"qryeval_postings_cache_hits_total", "Postings cache hits.");
+
+	public static final Counter POSTINGS_CACHE_MISSES = counter(
+			"qryeval_postings_cache_misses_total", "Postings cache misses.");
+
+	public static final Counter RESULT_CACHE_HITS = counter(
+			"qryeval_result_cache_hits_total", "Result cache hits.");
+
+	public static final Counter RESULT_CACHE_MISSES = counter(
+			"qryeval_result_cache_misses_total", "Result cache misses.");
+
+	public static final Counter ANALYZER_CACHE_HITS = counter(
+			"qryeval_analyzer_cache_hits_total", "Analyzer cache hits.");
+
+	public static final Counter ANALYZER_CACHE_MISSES = counter(
+			"qryeval_analyzer_cache_misses_total", "Analyzer cache misses.");
+
+	public static final Counter SHARED_SUBTREE_REUSES = counter(
+			"qryeval_shared_subtree_reuses_total",
+			"Subtree evaluations saved by reusing a shared result.");
+
+	static {
+		hitRatio("qryeval_postings_cache_hit_ratio", POSTINGS_CACHE_HITS,
+				POSTINGS_CACHE_MISSES);
+		hitRatio("qryeval_result_cache_hit_ratio", RESULT_CACHE_HITS,
+				RESULT_CACHE_MISSES);
+		hitRatio("qryeval_analyzer_cache_hit_ratio", ANALYZER_CACHE_HITS,
+				ANALYZER_CACHE_MISSES);
+
+		gauge("qryeval_heap_used_bytes", "Heap memory in use.", new Gauge() {
+
+			@Override
+			public double value() {
+				Runtime runtime = Runtime.getRuntime();
+				return runtime.totalMemory() - runtime.freeMemory();
+			}
+
+		});
+	}
+
+	/**
+	 * A count that only goes up.
+	 */
+	public static final class Counter {
+
+		private final AtomicLong count = new AtomicLong();
+
+		public void increment() {
+			this.count.incrementAndGet();
+		}
+
+		public void add(long n) {
+			this.count.addAndGet(n);
+		}
+
+		public long get() {
+			return this.count.get();
+		}
+	}
+
+	/**
+	 * A value that is read when the metrics are exported.
+	 */
+	public interface Gauge {
+
+		double value();
+	}
+
+	private static final class Metric {
+
+		final String help;
+		final Object value;
+
+		Metric(String help, Object value) {
+			this.help = help;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Register a new counter.
+	 *
+	 * @param name
+	 *            The metric name.
+	 * @param help
+	 *            What the counter counts.
+	 * @return The counter.
+	 */
+	public static Counter counter(String name, String help) {
+		Counter counter = new Counter();
+		register(name, help, counter);
+		return counter;
+	}
+
+	/**
+	 * Register a new histogram of durations. Durations are recorded in
+	 * nanoseconds and exported in seconds.
+	 *
+	 * @param name
+	 *            The metric name.
+	 * @param help
+	 *            What the histogram measures.
+	 * @return The histogram.
+	 */
+	public static Histogram histogram(String name, String help) {
+		Histogram histogram = new Histogram();
+		register(name, help, histogram);
+		return histogram;
+	}
+
+	/**
+	 * Register a gauge.
+	 *
+	 * @param name
+	 *            The metric name.
+	 * @param help
+	 *            What the gauge measures.
+	 * @param gauge
+	 *            The gauge.
+	 */
+	public static void gauge(String name, String help, Gauge gauge) {
+		register(name, help, gauge);
+	}
+
+	private static void hitRatio(String name, final Counter hits,
+			final Counter misses) {
+		gauge(name, "Fraction of lookups that hit.", new Gauge() {
+
+			@Override
+			public double value() {
+				long h = hits.get();
+				long total = h + misses.get();
+				return (total == 0) ? 0 : (double) h / total;
+			}
+
+		});
+	}
+
+	private static synchronized void register(String name, String help,
+			Object metric) {
+		if (REGISTRY.containsKey(name))
+			throw new IllegalArgumentException("Metric already registered: "
+					+ name);
+		REGISTRY.put(name, new Metric(help, metric));
+	}
+
+	/**
+	 * Set where the metrics are exported, and start exporting them
+	 * periodically.
+	 *
+	 * @param prometheus
+	 *            The Prometheus text file, or null.
+	 * @param json
+	 *            The JSON file, or null.
+	 * @param intervalSeconds
+	 *            How often to export, or 0 to export only when
+	 *            {@link #export()} is called.
+	 */
+	public static void startExport(String prometheus, String json,
+			long intervalSeconds) {
+		prometheusPath = prometheus;
+		jsonPath = json;
+		if (intervalSeconds <= 0 || (prometheus == null && json == null))
+			return;
+
+		exporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "metrics-export");
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+		exporter.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					export();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Write the metrics to the files given to
+	 * {@link #startExport(String, String, long)}.
+	 *
+	 * @throws IOException
+	 */
+	public static synchronized void export() throws IOException {
+		if (prometheusPath != null)
+			write(prometheusPath, false);
+		if (jsonPath != null)
+			write(jsonPath, true);
+	}
+
+	/**
+	 * Stop the periodic export and export the final values.
+	 *
+	 * @throws IOException
+	 */
+	public static void stopExport() throws IOException {
+		if (exporter != null)
+			exporter.shutdown();
+		export();
+	}
+
+	private static void write(String path, boolean json) throws IOException {
+		File file = new File(path);
+		File temp = new File(file.getPath() + ".tmp");
+		Writer writer = new BufferedWriter(new FileWriter(temp));
+		if (json)
+			writeJson(writer);
+		else
+			writePrometheus(writer);
+		writer.close();
+		Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Write every metric in the Prometheus text exposition format.
+	 *
+	 * @param out
+	 *            Where to write.
+	 * @throws IOException
+	 */
+	public static synchronized void writePrometheus(Writer out)
+			throws IOException {
+		for (Map.Entry<String, Metric> entry : REGISTRY.entrySet()) {
+			String name = entry.getKey();
+			Object value = entry.getValue().value;
+			out.write("# HELP " + name + " " + entry.getValue().help + "\n");
+
+			if (value instanceof Counter) {
+				out.write("# TYPE " + name + " counter\n");
+				out.write(name + " " + ((Counter) value).get() + "\n");
+			} else if (value instanceof Gauge) {
+				out.write("# TYPE " + name + " gauge\n");
+				out.write(name + " " + number(((Gauge) value).value()) + "\n");
+			} else {
+				Histogram histogram = (Histogram) value;
+				out.write("# TYPE " + name + " summary\n");
+				for (double q : QUANTILES)
+					out.write(name + "{quantile=\"" + q + "\"} "
+							+ seconds(histogram.quantile(q)) + "\n");
+				out.write(name + "_sum " + seconds(histogram.sum()) + "\n");
+				out.write(name + "_count " + histogram.count() + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Write every metric as one JSON object. Histograms are objects with
+	 * their count, sum, max and quantiles, in seconds.
+	 *
+	 * @param out
+	 *            Where to write.
+	 * @throws IOException
+	 */
+	public static synchronized void writeJson(Writer out) throws IOException {
+		out.write("{");
+		String separator = "\n";
+		for (Map.Entry<String, Metric> entry : REGISTRY.entrySet()) {
+			Object value = entry.getValue().value;
+			out.write(separator + "  \"" + entry.getKey() + "\": ");
+			separator = ",\n";
+
+			if (value instanceof Counter) {
+				out.write(Long.toString(((Counter) value).get()));
+			} else if (value instanceof Gauge) {
+				out.write(number(((Gauge) value).value()));
+			} else {
+				Histogram histogram = (Histogram) value;
+				out.write("{\"count\": " + histogram.count() + ", \"sum\": "
+						+ seconds(histogram.sum()) + ", \"max\": "
+						+ seconds(histogram.max()));
+				for (int i = 0; i < QUANTILES.length; i++)
+					out.write(", \"" + QUANTILE_NAMES[i] + "\": "
+							+ seconds(histogram.quantile(QUANTILES[i])));
+				out.write("}");
+			}
+		}
+		out.write("\n}\n");
+	}
+
+	private static String seconds(long nanos) {
+		return number(nanos / 1e9);
+	}
+
+	private static String number(double value) {
+		return Double.toString(value);
+	}
+}
@@ -0,0 +1,374 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Micro benchmarks of the query operators and of top-k selection, over
+ * synthetic inverted lists and score lists, so that the evaluation
+ * strategies can be compared without an index:
+ *
+ * <ul>
+ * <li>or.linear, or.hashMap, or.treeMap: the three term-at-a-time OR
+ * strategies, and or.daat: the document-at-a-time OR cursor.</li>
+ * <li>and.taat, and.daat: AND in both modes.</li>
+ * <li>syn, near, window: SYN, NEAR/3 and WINDOW/8 over inverted lists.</li>
+ * <li>topk.maxHeap, topk.minHeap: the two top-k selection strategies.</li>
+ * </ul>
+ *
+ * Each benchmark runs for every combination of list length, overlap ratio
+ * and argument count. The overlap ratio is the fraction of each argument's
+ * documents that every other argument also contains. A benchmark is run
+ * for a number of warmup iterations, whose times are discarded, and then
+ * for a number of measured iterations; each iteration repeats the
+ * operation for a fixed time. The mean time per operation and its standard
+ * deviation across iterations are reported.
+ *
+ * Options are given as key=value arguments:
+ *
+ * <pre>
+ * benchmarks=or,topk   benchmarks whose names start with one of these
+ * lengths=1000,100000  list lengths
+ * overlaps=0.1,0.9     overlap ratios
+ * args=2,8             argument counts
+ * warmup=5             warmup iterations
+ * iterations=10        measured iterations
+ * iterationMillis=200  length of an iteration
+ * seed=42              seed of the synthetic data
+ * </pre>
+ *
+ * Run it with "make bench", passing options in BENCH_ARGS.
+ *
+ */
+public class OperatorBenchmark {
+
+	private static final String[] BENCHMARKS = { "or.linear", "or.hashMap",
+			"or.treeMap", "or.daat", "and.taat", "and.daat", "syn", "near",
+			"window", "topk.maxHeap", "topk.minHeap" };
+
+	private static final RetrievalModel MODEL = new RetrievalModelRankedBoolean();
+
+	// Results are added here so that the JIT cannot discard the work.
+
+	private static long sink = 0;
+
+	private int warmup = 5;
+	private int iterations = 10;
+	private long iterationNanos = 200 * 1000000L;
+
+	/**
+	 * @param args
+	 *            Options, as key=value.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			String[] pair = arg.split("=");
+			if (pair.length != 2) {
+				System.err.println("Usage:  java OperatorBenchmark "
+						+ "[key=value ...]");
+				System.exit(1);
+			}
+			options.put(pair[0].trim(), pair[1].trim());
+		}
+
+		OperatorBenchmark benchmark = new OperatorBenchmark();
+		if (options.containsKey("warmup"))
+			benchmark.warmup = Integer.parseInt(options.get("warmup"));
+		if (options.containsKey("iterations"))
+			benchmark.iterations = Integer.parseInt(options.get("iterations"));
+		if (options.containsKey("iterationMillis"))
+			benchmark.iterationNanos = Long.parseLong(options
+					.get("iterationMillis")) * 1000000L;
+
+		String[] names = option(options, "benchmarks", "");
+		String[] lengths = option(options, "lengths", "1000,100000");
+		String[] overlaps = option(options, "overlaps", "0.1,0.5,0.9");
+		String[] argCounts = option(options, "args", "2,8");
+		long seed = Long.parseLong(option(options, "seed", "42")[0]);
+
+		System.out.printf("%-14s %9s %8s %5s %14s %12s%n", "benchmark",
+				"length", "overlap", "args", "ns/op", "+-");
+
+		for (String name : BENCHMARKS) {
+			if (!selected(name, names))
+				continue;
+			// Top-k selection reads a single score list, so only its length
+			// varies.
+
+			boolean topK = name.startsWith("topk.");
+			for (String length : lengths)
+				for (String overlap : topK ? new String[] { "0" } : overlaps)
+					for (String argCount : topK ? new String[] { "1" }
+							: argCounts) {
+						Random random = new Random(seed);
+						benchmark.run(name, Integer.parseInt(length),
+								Double.parseDouble(overlap),
+								Integer.parseInt(argCount), random);
+					}
+		}
+
+		if (sink == 42)
+			System.out.println();
+	}
+
+	private static String[] option(Map<String, String> options, String key,
+			String defaultValue) {
+		String value = options.containsKey(key) ? options.get(key)
+				: defaultValue;
+		return value.split(",");
+	}
+
+	private static boolean selected(String name, String[] prefixes) {
+		for (String prefix : prefixes)
+			if (name.startsWith(prefix))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Run one benchmark with one combination of parameters and print its
+	 * time per operation.
+	 */
+	private void run(String name, int length, double overlap, int argCount,
+			Random random) throws IOException {
+
+		InvList[] lists = name.startsWith("topk.") ? new InvList[0]
+				: invertedLists(length, overlap, argCount, random);
+		Operation operation = operation(name, lists, length, random);
+
+		for (int i = 0; i < this.warmup; i++)
+			measure(operation);
+
+		double[] times = new double[this.iterations];
+		for (int i = 0; i < this.iterations; i++)
+			times[i] = measure(operation);
+
+		double mean = 0;
+		for (double time : times)
+			mean += time;
+		mean /= times.length;
+		double variance = 0;
+		for (double time : times)
+			variance += (time - mean) * (time - mean);
+		double deviation = Math.sqrt(variance / Math.max(1, times.length - 1));
+
+		System.out.printf("%-14s %9d %8.2f %5d %14.1f %12.1f%n", name, length,
+				overlap, argCount, mean, deviation);
+	}
+
+	/**
+	 * Repeat an operation for one iteration.
+	 *
+	 * @return The mean time of the operation, in nanoseconds.
+	 */
+	private double measure(Operation operation) throws IOException {
+		long count = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			sink += operation.run();
+			count++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < this.iterationNanos);
+		return (double) elapsed / count;
+	}
+
+	private Operation operation(String name, InvList[] lists, int length,
+			Random random) {
+
+		Qryop[] args = new Qryop[lists.length];
+		for (int i = 0; i < lists.length; i++)
+			args[i] = new FixedList(lists[i]);
+
+		if (name.startsWith("or.")) {
+			final QryopSlOr or = new QryopSlOr(args);
+			if (name.equals("or.linear"))
+				return new Operation() {
+					public long run() throws IOException {
+						return or.evaluateLinear(MODEL).docScores.size();
+					}
+				};
+			if (name.equals("or.hashMap"))
+				return new Operation() {
+					public long run() throws IOException {
+						return or.evaluateHashMap(MODEL).docScores.size();
+					}
+				};
+			if (name.equals("or.treeMap"))
+				return new Operation() {
+					public long run() throws IOException {
+						return or.evaluateTreeMap(MODEL).docScores.size();
+					}
+				};
+			return drain(or);
+		}
+
+		if (name.startsWith("and.")) {
+			final QryopSlAnd and = new QryopSlAnd(args);
+			if (name.equals("and.taat"))
+				return evaluate(and);
+			return drain(and);
+		}
+
+		if (name.equals("syn"))
+			return evaluate(new QryopIlSyn(args));
+
+		if (name.equals("near"))
+			return evaluate(new QryopIlNear(3, args));
+
+		if (name.equals("window"))
+			return evaluate(new QryopIlWindow(8, args));
+
+		final ScoreList scores = scoreList(length, random);
+		if (name.equals("topk.maxHeap"))
+			return new Operation() {
+				public long run() {
+					return QryEval.retrieveLargestMaxHeap(scores).size();
+				}
+			};
+		return new Operation() {
+			public long run() throws IOException {
+				return QryEval.retrieveLargestMinHeap(scores).size();
+			}
+		};
+	}
+
+	/**
+	 * Evaluate an operator term at a time.
+	 */
+	private static Operation evaluate(final Qryop q) {
+		return new Operation() {
+			public long run() throws IOException {
+				QryResult result = q.evaluate(MODEL);
+				return result.docScores.size() + result.invertedList.df;
+			}
+		};
+	}
+
+	/**
+	 * Read every document from an operator's score cursor.
+	 */
+	private static Operation drain(final QryopSl q) {
+		return new Operation() {
+			public long run() throws IOException {
+				ScoreCursor cursor = q.scoreCursor(MODEL);
+				long count = 0;
+				while (cursor.nextDoc() != ScoreCursor.NO_MORE_DOCS)
+					count++;
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Build argCount inverted lists of the given length. A fraction overlap
+	 * of each list's documents are shared by every list; the others are in
+	 * that list only. Docids are spread out so that gaps vary, and every
+	 * posting has 1 to 4 positions.
+	 */
+	private static InvList[] invertedLists(int length, double overlap,
+			int argCount, Random random) {
+
+		int shared = (int) Math.round(length * overlap);
+		int own = length - shared;
+
+		int[] docids = new int[shared + argCount * own];
+		for (int i = 0, docid = 0; i < docids.length; i++) {
+			docid += 1 + random.nextInt(4);
+			docids[i] = docid;
+		}
+		shuffle(docids, random);
+
+		InvList[] lists = new InvList[argCount];
+		for (int i = 0; i < argCount; i++) {
+			int[] list = new int[length];
+			System.arraycopy(docids, 0, list, 0, shared);
+			System.arraycopy(docids, shared + i * own, list, shared, own);
+			Arrays.sort(list);
+
+			lists[i] = new InvList("body");
+			int[] positions = new int[4];
+			for (int docid : list) {
+				int tf = 1 + random.nextInt(positions.length);
+				for (int j = 0, position = 0; j < tf; j++) {
+					position += 1 + random.nextInt(5);
+					positions[j] = position;
+				}
+				lists[i].appendPosting(docid, positions, tf);
+			}
+		}
+
+		QryEval.EXTERNAL_ID_ORDINALS = identityOrdinals(docids.length * 5 + 1);
+		return lists;
+	}
+
+	/**
+	 * Build a score list of the given length, with few distinct scores so
+	 * that ties are common, as they are under the boolean models.
+	 */
+	private static ScoreList scoreList(int length, Random random) {
+		ScoreList scores = new ScoreList();
+		for (int docid = 0; docid < length; docid++)
+			scores.add(docid, 1 + random.nextInt(20));
+		QryEval.EXTERNAL_ID_ORDINALS = identityOrdinals(length);
+		return scores;
+	}
+
+	private static ExternalIdOrdinals identityOrdinals(int maxDoc) {
+		int[] ordinals = new int[maxDoc];
+		for (int i = 0; i < maxDoc; i++)
+			ordinals[i] = i;
+		return new ExternalIdOrdinals(ordinals);
+	}
+
+	private static void shuffle(int[] values, Random random) {
+		for (int i = values.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+
+	private interface Operation {
+
+		/**
+		 * @return A number that depends on the result.
+		 */
+		long run() throws IOException;
+	}
+
+	/**
+	 * A query argument that returns a prebuilt inverted list. The list is
+	 * never modified by the operators that read it.
+	 */
+	private static class FixedList extends QryopIl {
+
+		private final InvList list;
+
+		FixedList(InvList list) {
+			this.list = list;
+		}
+
+		public void add(Qryop q) {
+		}
+
+		public QryResult evaluate(RetrievalModel r) {
+			QryResult result = new QryResult();
+			result.invertedList = this.list;
+			return result;
+		}
+
+		public String toString() {
+			return "#FIXED(" + this.list.df + ")";
+		}
+
+		public String toCanonicalString() {
+			return toString();
+		}
+	}
+}
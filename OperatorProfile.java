@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What one query operator did while a query was evaluated, for profiling
+ * slow queries (the profileQueries parameter). When a query is profiled,
+ * every operator of its tree gets a profile, and the operator records its
+ * work there:
+ *
+ * <ul>
+ * <li>Score list operators that are evaluated term at a time record the
+ * time and the allocation of evaluate(), and the length of the score list
+ * that it returns.</li>
+ * <li>Operators that are read through a cursor (inverted list operators,
+ * and score list operators in document-at-a-time mode) record the cost of
+ * opening the cursor and of every call to it, and the documents and
+ * positions that it returns.</li>
+ * </ul>
+ *
+ * Times and allocations are inclusive: they include the work of the
+ * operator's arguments, which is done inside its calls. The self time of an
+ * operator is its time less the time of its arguments. The postings and
+ * positions touched by an operator are those read from the index by the
+ * terms of its subtree. If a query is split by segment or its arguments are
+ * forked, the work of every thread is added up.
+ *
+ * Allocation is measured with the HotSpot per-thread allocation counter and
+ * is reported as 0 on JVMs that do not have it.
+ *
+ */
+public class OperatorProfile {
+
+	private static final com.sun.management.ThreadMXBean ALLOCATION = allocationCounter();
+
+	private long nanos = 0;
+	private long bytes = 0;
+	private long out = 0;
+	private final List<Cursor> cursors = new ArrayList<Cursor>();
+
+	/**
+	 * Give every operator of a query tree a new profile.
+	 *
+	 * @param q
+	 *            The root of the query tree.
+	 */
+	public static void attach(Qryop q) {
+		q.profile = new OperatorProfile();
+		for (Qryop arg : q.args)
+			attach(arg);
+	}
+
+	/**
+	 * Evaluate an operator, recording the cost in its profile if it has
+	 * one. Inverted list operators are profiled through their cursors
+	 * instead, since that is how their results are read.
+	 *
+	 * @param q
+	 *            The operator.
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return The result of the operator.
+	 * @throws IOException
+	 */
+	public static QryResult evaluate(Qryop q, RetrievalModel r)
+			throws IOException {
+		if (q.profile == null || q instanceof QryopIl)
+			return q.evaluate(r);
+
+		long start = System.nanoTime();
+		long allocated = allocatedBytes();
+		QryResult result = q.evaluate(r);
+		q.profile.record(System.nanoTime() - start, allocatedBytes()
+				- allocated, result.docScores.size());
+		return result;
+	}
+
+	/**
+	 * Open a score cursor on an operator, profiling the cursor if the
+	 * operator has a profile.
+	 *
+	 * @param q
+	 *            The operator.
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return A new cursor, positioned before the first document.
+	 * @throws IOException
+	 */
+	public static ScoreCursor scoreCursor(QryopSl q, RetrievalModel r)
+			throws IOException {
+		if (q.profile == null)
+			return q.scoreCursor(r);
+
+		long start = System.nanoTime();
+		long allocated = allocatedBytes();
+		ScoreCursor cursor = q.scoreCursor(r);
+		q.profile.record(System.nanoTime() - start, allocatedBytes()
+				- allocated, 0);
+		return new ScoreCursorProfiled(cursor, q.profile);
+	}
+
+	/**
+	 * @return The number of bytes that the current thread has allocated so
+	 *         far, or 0 if this is not known.
+	 */
+	static long allocatedBytes() {
+		if (ALLOCATION == null)
+			return 0;
+		return ALLOCATION.getThreadAllocatedBytes(Thread.currentThread()
+				.getId());
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+				if (counter.isThreadAllocatedMemorySupported()) {
+					counter.setThreadAllocatedMemoryEnabled(true);
+					return counter;
+				}
+			}
+		} catch (LinkageError e) {
+			// not a HotSpot JVM
+		} catch (UnsupportedOperationException e) {
+			// allocation counting is not supported
+		}
+		return null;
+	}
+
+	/**
+	 * Add work that was not done through a cursor.
+	 *
+	 * @param nanos
+	 *            The elapsed time.
+	 * @param bytes
+	 *            The bytes allocated.
+	 * @param out
+	 *            The number of documents returned.
+	 */
+	synchronized void record(long nanos, long bytes, long out) {
+		this.nanos += nanos;
+		this.bytes += bytes;
+		this.out += out;
+	}
+
+	/**
+	 * Register the counters of a cursor on the operator. They are read when
+	 * the profile is printed, after the query has been evaluated.
+	 */
+	synchronized void add(Cursor cursor) {
+		this.cursors.add(cursor);
+	}
+
+	/**
+	 * The counters of one profiled cursor. A cursor is read by one thread,
+	 * so they are updated without locking.
+	 */
+	static final class Cursor {
+
+		long nanos;
+		long bytes;
+		long docs;
+		long positions;
+	}
+
+	/**
+	 * Describe the profile of an evaluated query as a tree: one operator per
+	 * line, indented by depth.
+	 *
+	 * @param q
+	 *            The root of the query tree, after evaluation.
+	 * @return The description.
+	 */
+	public static String format(Qryop q) {
+		StringBuilder tree = new StringBuilder();
+		format(q, "", tree);
+		return tree.toString();
+	}
+
+	private static void format(Qryop q, String indent, StringBuilder tree) {
+
+		long[] total = q.profile.totals();
+		long[] touched = touched(q);
+		long argNanos = 0;
+		StringBuilder in = new StringBuilder();
+		for (Qryop arg : q.args) {
+			long[] argTotal = arg.profile.totals();
+			argNanos += argTotal[0];
+			in.append(in.length() == 0 ? "" : ", ").append(argTotal[2]);
+		}
+
+		String name;
+		if (q instanceof QryopIlTerm) {
+			name = q.toString();
+		} else {
+			String s = q.toCanonicalString();
+			name = s.substring(0, s.indexOf('('));
+		}
+
+		tree.append(String.format(
+				"%s%s  time %.3f ms, self %.3f ms, alloc %.1f KB, "
+						+ "in [%s], out %d, postings %d, positions %d%n",
+				indent, name, total[0] / 1e6,
+				Math.max(0, total[0] - argNanos) / 1e6, total[1] / 1024.0,
+				in, total[2], touched[0], touched[1]));
+
+		for (Qryop arg : q.args)
+			format(arg, indent + "  ", tree);
+	}
+
+	/**
+	 * @return The time, allocation and output of the operator.
+	 */
+	synchronized long[] totals() {
+		long[] totals = { this.nanos, this.bytes, this.out, 0 };
+		for (Cursor cursor : this.cursors) {
+			totals[0] += cursor.nanos;
+			totals[1] += cursor.bytes;
+			totals[2] += cursor.docs;
+			totals[3] += cursor.positions;
+		}
+		return totals;
+	}
+
+	/**
+	 * @return The postings and positions read by the terms of a subtree.
+	 */
+	private static long[] touched(Qryop q) {
+		if (q instanceof QryopIlTerm) {
+			long[] totals = q.profile.totals();
+			return new long[] { totals[2], totals[3] };
+		}
+		long[] touched = { 0, 0 };
+		for (Qryop arg : q.args) {
+			long[] argTouched = touched(arg);
+			touched[0] += argTouched[0];
+			touched[1] += argTouched[1];
+		}
+		return touched;
+	}
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of inverted lists read from the index, keyed by term and field, so
+ * that terms that are repeated within a query or across queries are only
+ * read from Lucene once. Lists are kept in the compressed format of
+ * {@link CompressedInvList}, and the cache holds at most a given number of
+ * compressed bytes.
+ *
+ * Eviction is least recently used, with a TinyLFU admission filter: a small
+ * count-min sketch estimates how often each key has been requested recently,
+ * and a new list is only cached if it is requested more often than the
+ * lists that it would evict. This keeps a scan of rare terms from flushing
+ * the frequent ones. Admission is decided before a list is read, from a
+ * lower bound on its size given by its df: a list that would not be cached
+ * is not copied at all, and the caller streams it from the index as if
+ * there were no cache.
+ *
+ * The cache may be used by several threads. Lists are read from the index
+ * outside of the lock, so two threads that miss on the same key at the same
+ * time may both read it. Cached lists are read-only, and each user reads
+ * them with its own cursor.
+ *
+ */
+public class PostingsCache {
+
+	private static final int SKETCH_WIDTH = 1 << 14;
+	private static final int SKETCH_DEPTH = 4;
+	private static final int MAX_COUNT = 15;
+
+	private final long maxBytes;
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	private final LinkedHashMap<Key, CompressedInvList> lists = new LinkedHashMap<Key, CompressedInvList>(
+			16, 0.75f, true);
+
+	// Count-min sketch of request frequencies. All counts are halved after
+	// every 10 * SKETCH_WIDTH requests, so old requests are forgotten.
+
+	private final byte[] sketch = new byte[SKETCH_DEPTH * SKETCH_WIDTH];
+	private int requests = 0;
+
+	/**
+	 * @param maxBytes
+	 *            The maximum size of the cached lists, in bytes.
+	 */
+	public PostingsCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Open a cursor on the inverted list of a term. A cached list is read
+	 * from the cache. Otherwise, if the admission filter would cache the
+	 * list, it is read from the index, compressed and cached; if not, the
+	 * cursor streams the postings from the index.
+	 *
+	 * @param term
+	 *            The processed (stemmed, lower-cased, etc) term string.
+	 * @param field
+	 *            The field that the term occurs in.
+	 * @return A new cursor, positioned before the first posting.
+	 * @throws IOException
+	 */
+	public PostingsCursor cursor(String term, String field)
+			throws IOException {
+
+		Key key = new Key(term, field);
+
+		synchronized (this) {
+			increment(key.hash);
+			CompressedInvList list = this.lists.get(key);
+			if (list != null) {
+				this.hits++;
+				Metrics.POSTINGS_CACHE_HITS.increment();
+				return list.cursor();
+			}
+			this.misses++;
+			Metrics.POSTINGS_CACHE_MISSES.increment();
+		}
+
+		PostingsCursorLucene postings = new PostingsCursorLucene(term, field);
+		synchronized (this) {
+			if (victims(key, CompressedInvList.minRamBytes(postings.cost())) == null)
+				return postings;
+		}
+
+		CompressedInvList list = new CompressedInvList(postings);
+		put(key, list);
+		return list.cursor();
+	}
+
+	/**
+	 * Cache a list, evicting the least recently used lists to make room for
+	 * it if the admission filter allows it.
+	 */
+	private synchronized void put(Key key, CompressedInvList list) {
+
+		if (this.lists.containsKey(key))
+			return;
+
+		long size = list.ramBytesUsed();
+		List<Key> victims = victims(key, size);
+		if (victims == null)
+			return;
+
+		for (Key victim : victims)
+			this.bytes -= this.lists.remove(victim).ramBytesUsed();
+
+		this.lists.put(key, list);
+		this.bytes += size;
+	}
+
+	/**
+	 * Find the lists that would have to be evicted to cache a list of the
+	 * given size. If any of them is requested at least as often as the new
+	 * list, they are kept instead.
+	 *
+	 * @return The lists to evict, least recently used first, or null if the
+	 *         new list is not admitted.
+	 */
+	private List<Key> victims(Key key, long size) {
+
+		if (size > this.maxBytes)
+			return null;
+
+		List<Key> victims = new ArrayList<Key>();
+		long free = this.maxBytes - this.bytes;
+		int frequency = frequency(key.hash);
+
+		Iterator<Map.Entry<Key, CompressedInvList>> it = this.lists
+				.entrySet().iterator();
+		while (free < size) {
+			Map.Entry<Key, CompressedInvList> eldest = it.next();
+			if (frequency(eldest.getKey().hash) >= frequency)
+				return null;
+			victims.add(eldest.getKey());
+			free += eldest.getValue().ramBytesUsed();
+		}
+		return victims;
+	}
+
+	private void increment(int hash) {
+		for (int i = 0; i < SKETCH_DEPTH; i++) {
+			int slot = i * SKETCH_WIDTH + index(hash, i);
+			if (this.sketch[slot] < MAX_COUNT)
+				this.sketch[slot]++;
+		}
+
+		if (++this.requests == 10 * SKETCH_WIDTH) {
+			for (int i = 0; i < this.sketch.length; i++)
+				this.sketch[i] >>= 1;
+			this.requests = 0;
+		}
+	}
+
+	private int frequency(int hash) {
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < SKETCH_DEPTH; i++)
+			frequency = Math.min(frequency,
+					this.sketch[i * SKETCH_WIDTH + index(hash, i)]);
+		return frequency;
+	}
+
+	/**
+	 * @return The hash of row i of the sketch.
+	 */
+	private static int index(int hash, int i) {
+		int h = hash * (0x9E3779B9 + 2 * i);
+		return (h ^ (h >>> 16)) & (SKETCH_WIDTH - 1);
+	}
+
+	/**
+	 * @return The number of requests that were found in the cache.
+	 */
+	public synchronized long hits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return The number of requests that were read from the index.
+	 */
+	public synchronized long misses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return The size of the cached lists, in bytes.
+	 */
+	public synchronized long ramBytesUsed() {
+		return this.bytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "postings cache: " + this.lists.size() + " lists, "
+				+ this.bytes + " bytes, " + this.hits + " hits, "
+				+ this.misses + " misses";
+	}
+
+	private static final class Key {
+
+		private final String term;
+		private final String field;
+		private final int hash;
+
+		Key(String term, String field) {
+			this.term = term;
+			this.field = field;
+			this.hash = 31 * term.hashCode() + field.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return this.term.equals(k.term) && this.field.equals(k.field);
+		}
+	}
+}
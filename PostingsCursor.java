@@ -0,0 +1,88 @@
+import java.io.IOException;
+
+/**
+ * A cursor over an inverted list. Unlike {@link InvList}, a cursor does not
+ * hold the whole list in memory; it exposes one posting at a time, in docid
+ * order, in the style of Lucene's DocsAndPositionsEnum. Query operators that
+ * return inverted lists can expose their result as a cursor so that the
+ * consuming operator reads postings lazily.
+ *
+ * A new cursor is positioned before the first document, so docID() returns -1
+ * until nextDoc() or advance() is called. The positions of the current
+ * document may be read with nextPosition(), at most freq() times, before the
+ * cursor moves to another document.
+ *
+ */
+public abstract class PostingsCursor {
+
+	/**
+	 * Returned by docID(), nextDoc() and advance() once the list is exhausted.
+	 * Same value as Lucene's DocIdSetIterator.NO_MORE_DOCS.
+	 */
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	/**
+	 * @return The internal docid of the current document, -1 if the cursor
+	 *         has not been started, or NO_MORE_DOCS if it is exhausted.
+	 */
+	public abstract int docID();
+
+	/**
+	 * Move to the next document in the list.
+	 *
+	 * @return The docid of the next document, or NO_MORE_DOCS.
+	 * @throws IOException
+	 */
+	public abstract int nextDoc() throws IOException;
+
+	/**
+	 * Move to the first document whose docid is greater than or equal to the
+	 * target. The target must be greater than the current docid. Subclasses
+	 * that can skip should override this linear implementation.
+	 *
+	 * @param target
+	 *            The docid to move to.
+	 * @return The docid of the document moved to, or NO_MORE_DOCS.
+	 * @throws IOException
+	 */
+	public int advance(int target) throws IOException {
+		int doc;
+		while ((doc = nextDoc()) < target)
+			;
+		return doc;
+	}
+
+	/**
+	 * @return The term frequency in the current document.
+	 * @throws IOException
+	 */
+	public abstract int freq() throws IOException;
+
+	/**
+	 * Return the next position of the current document. Positions are
+	 * returned in increasing order.
+	 *
+	 * @return The next position.
+	 * @throws IOException
+	 */
+	public abstract int nextPosition() throws IOException;
+
+	/**
+	 * @return An upper bound on the term frequency in any document of the
+	 *         list. Used to bound scores for top-k pruning.
+	 */
+	public int maxFreq() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return An upper bound on the number of documents in the list. This is
+	 *         the exact df for lists read from the index.
+	 */
+	public abstract long cost();
+
+	/**
+	 * @return The field that the postings belong to.
+	 */
+	public abstract String getField();
+}
@@ -0,0 +1,126 @@
+/**
+ * A cursor over a {@link CompressedInvList}. Postings are decoded one block
+ * at a time: the docids and term frequencies when the cursor enters the
+ * block, and the positions only when the first of them is read, so that
+ * operators that never read positions never decode them. advance() uses
+ * the block skip data to step over blocks that cannot contain the target.
+ *
+ */
+public class PostingsCursorCompressed extends PostingsCursor {
+
+	private CompressedInvList list;
+	private int doc = -1;
+
+	// The current block, its decoded docids and tfs, and the index of the
+	// current document in it. positionStarts[i] is the index in positions
+	// of document i's first position, valid once positions are decoded.
+
+	private int block = -1;
+	private int count = 0;
+	private int i = 0;
+	private int[] docids = new int[CompressedInvList.BLOCK_SIZE];
+	private int[] tfs = new int[CompressedInvList.BLOCK_SIZE];
+
+	private int positionsOffset;
+	private boolean positionsDecoded;
+	private int[] positionStarts = new int[CompressedInvList.BLOCK_SIZE];
+	private int[] positions = new int[16];
+	private int position;
+
+	public PostingsCursorCompressed(CompressedInvList list) {
+		this.list = list;
+		if (list.df == 0)
+			this.doc = NO_MORE_DOCS;
+	}
+
+	@Override
+	public int docID() {
+		return this.doc;
+	}
+
+	@Override
+	public int nextDoc() {
+		if (this.doc == NO_MORE_DOCS)
+			return this.doc;
+
+		if (++this.i >= this.count) {
+			if (this.block + 1 >= this.list.getBlockCount())
+				return this.doc = NO_MORE_DOCS;
+			loadBlock(this.block + 1);
+		}
+
+		this.position = 0;
+		return this.doc = this.docids[this.i];
+	}
+
+	@Override
+	public int advance(int target) {
+		if (this.doc == NO_MORE_DOCS)
+			return this.doc;
+
+		// Skip to the first block that can contain the target, unless it is
+		// the current block.
+
+		if (this.count == 0 || this.docids[this.count - 1] < target) {
+			int b = this.list.findBlock(this.block + 1, target);
+			if (b >= this.list.getBlockCount())
+				return this.doc = NO_MORE_DOCS;
+			loadBlock(b);
+		} else {
+			this.i++;
+		}
+
+		while (this.docids[this.i] < target)
+			this.i++;
+
+		this.position = 0;
+		return this.doc = this.docids[this.i];
+	}
+
+	private void loadBlock(int b) {
+		this.block = b;
+		this.count = this.list.getBlockSize(b);
+		this.positionsOffset = this.list.decodeBlock(b, this.docids, this.tfs);
+		Metrics.POSTINGS_DECODED.add(this.count);
+		this.positionsDecoded = false;
+		this.i = 0;
+	}
+
+	@Override
+	public int freq() {
+		return this.tfs[this.i];
+	}
+
+	@Override
+	public int nextPosition() {
+		if (!this.positionsDecoded) {
+			int n = 0;
+			for (int j = 0; j < this.count; j++) {
+				this.positionStarts[j] = n;
+				n += this.tfs[j];
+			}
+			if (n > this.positions.length)
+				this.positions = new int[Math.max(n, this.positions.length * 2)];
+			this.list.decodePositions(this.positionsOffset, this.tfs,
+					this.count, this.positions);
+			Metrics.POSITIONS_DECODED.add(n);
+			this.positionsDecoded = true;
+		}
+		return this.positions[this.positionStarts[this.i] + this.position++];
+	}
+
+	@Override
+	public int maxFreq() {
+		return this.list.getMaxFreq();
+	}
+
+	@Override
+	public long cost() {
+		return this.list.df;
+	}
+
+	@Override
+	public String getField() {
+		return this.list.field;
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * A cursor over an inverted list that is already in memory. It lets an
+ * evaluated {@link InvList} be consumed through the same interface as lists
+ * that are read lazily from the index.
+ *
+ */
+public class PostingsCursorInvList extends PostingsCursor {
+
+	private InvList invList;
+	private int n = -1;
+	private int position;
+	private int maxFreq = -1;
+
+	public PostingsCursorInvList(InvList invList) {
+		this.invList = invList;
+	}
+
+	@Override
+	public int docID() {
+		if (this.n < 0)
+			return -1;
+		if (this.n >= this.invList.df)
+			return NO_MORE_DOCS;
+		return this.invList.getDocid(this.n);
+	}
+
+	@Override
+	public int nextDoc() {
+		if (this.n < this.invList.df)
+			this.n++;
+		this.position = 0;
+		return docID();
+	}
+
+	@Override
+	public int advance(int target) {
+		if (this.n < this.invList.df)
+			this.n = this.invList.advance(Math.max(this.n, 0), target);
+		this.position = 0;
+		return docID();
+	}
+
+	@Override
+	public int freq() {
+		return this.invList.getTf(this.n);
+	}
+
+	@Override
+	public int nextPosition() {
+		return this.invList.getPosition(this.n, this.position++);
+	}
+
+	@Override
+	public int maxFreq() {
+		if (this.maxFreq < 0) {
+			this.maxFreq = 0;
+			for (int i = 0; i < this.invList.df; i++)
+				this.maxFreq = Math.max(this.maxFreq, this.invList.getTf(i));
+		}
+		return this.maxFreq;
+	}
+
+	@Override
+	public long cost() {
+		return this.invList.df;
+	}
+
+	@Override
+	public String getField() {
+		return this.invList.field;
+	}
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A cursor that reads the postings of a term directly from the Lucene index.
+ * Nothing is copied; each call is delegated to the Lucene
+ * DocsAndPositionsEnum, so advance() uses the index's own skip lists.
+ *
+ * The cursor reads either the whole index, through a view that merges all
+ * of its segments, or a single segment. Docids are always index-wide: the
+ * docids of a segment are offset by its docBase.
+ *
+ */
+public class PostingsCursorLucene extends PostingsCursor {
+
+	private String field;
+	private DocsAndPositionsEnum iList;
+	private int df;
+	private int maxFreq = Integer.MAX_VALUE;
+	private int docBase = 0;
+	private int doc = -1;
+
+	/**
+	 * Open the inverted list of a term in the whole index.
+	 *
+	 * @param termString
+	 *            The processed (stemmed, lower-cased, etc) term string.
+	 * @param fieldString
+	 *            The field that the term occurs in.
+	 * @throws IOException
+	 */
+	public PostingsCursorLucene(String termString, String fieldString)
+			throws IOException {
+		this(termString, fieldString, null);
+	}
+
+	/**
+	 * Open the inverted list of a term in one segment of the index.
+	 *
+	 * @param termString
+	 *            The processed (stemmed, lower-cased, etc) term string.
+	 * @param fieldString
+	 *            The field that the term occurs in.
+	 * @param segment
+	 *            The segment, or null for the whole index.
+	 * @throws IOException
+	 */
+	public PostingsCursorLucene(String termString, String fieldString,
+			AtomicReaderContext segment) throws IOException {
+
+		this.field = fieldString;
+
+		BytesRef termBytes = new BytesRef(termString);
+		Term term = new Term(fieldString, termBytes);
+
+		if (segment != null) {
+			this.docBase = segment.docBase;
+			this.df = segment.reader().docFreq(term);
+		} else {
+			this.df = QryEval.READER.docFreq(term);
+		}
+
+		if (this.df < 1) {
+			this.doc = NO_MORE_DOCS;
+			return;
+		}
+
+		// Every document in the list has tf >= 1, so no document can have a
+		// tf greater than ctf - df + 1.
+
+		long ctf = (segment != null) ? segment.reader().totalTermFreq(term)
+				: QryEval.READER.totalTermFreq(term);
+		if (ctf > 0)
+			this.maxFreq = (int) Math.min(Integer.MAX_VALUE, ctf - this.df + 1);
+
+		if (segment != null)
+			this.iList = segment.reader().termPositionsEnum(term);
+		else
+			this.iList = MultiFields.getTermPositionsEnum(QryEval.READER,
+					MultiFields.getLiveDocs(QryEval.READER), fieldString,
+					termBytes);
+
+		if (this.iList == null)
+			this.doc = NO_MORE_DOCS;
+	}
+
+	@Override
+	public int docID() {
+		return this.doc;
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		if (this.doc != NO_MORE_DOCS)
+			this.doc = toIndexDocid(this.iList.nextDoc());
+		return this.doc;
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		if (this.doc != NO_MORE_DOCS)
+			this.doc = toIndexDocid(this.iList.advance(Math.max(0, target
+					- this.docBase)));
+		return this.doc;
+	}
+
+	private int toIndexDocid(int docid) {
+		return (docid == NO_MORE_DOCS) ? docid : docid + this.docBase;
+	}
+
+	@Override
+	public int freq() throws IOException {
+		return this.iList.freq();
+	}
+
+	@Override
+	public int nextPosition() throws IOException {
+		return this.iList.nextPosition();
+	}
+
+	@Override
+	public int maxFreq() {
+		return this.maxFreq;
+	}
+
+	@Override
+	public long cost() {
+		return this.df;
+	}
+
+	@Override
+	public String getField() {
+		return this.field;
+	}
+}
@@ -0,0 +1,64 @@
+import java.util.List;
+
+/**
+ * A cursor that returns the matches of the NEAR/n operator over its argument
+ * cursors. A document is returned if every argument contains it and the
+ * arguments occur in order, each within n positions of the previous one. The
+ * positions returned for a document are the positions of the last argument in
+ * each match.
+ *
+ */
+public class PostingsCursorNear extends PostingsCursorProximity {
+
+	private int gap;
+
+	/**
+	 * @param gap
+	 *            The maximum distance between adjacent arguments.
+	 * @param args
+	 *            The argument cursors. They must not have been started.
+	 */
+	public PostingsCursorNear(int gap, List<PostingsCursor> args) {
+		super(args);
+		this.gap = gap;
+	}
+
+	/**
+	 * Match the positions of the current candidate document with a greedy
+	 * algorithm: for each position of the first argument, scan forward in
+	 * each following argument for the first position that is not before the
+	 * previous match. Each argument's scan resumes where the last one stopped.
+	 */
+	@Override
+	protected void matchPositions() {
+
+		nearEvaluate: for (int i = 0; i < this.argTf[0]; i++) {
+			int last = this.argPositions[0][i];
+			for (int j = 1; j < this.args.length; j++) {
+				int[] p = this.argPositions[j];
+				while (true) {
+					if (this.argPosition[j] >= this.argTf[j])
+						break nearEvaluate;
+					if (p[this.argPosition[j]] < last) {
+						this.argPosition[j]++;
+					} else if (p[this.argPosition[j]] - last > this.gap) {
+						continue nearEvaluate;
+					} else {
+						last = p[this.argPosition[j]];
+						break;
+					}
+				}
+			}
+
+			addMatch(last);
+		}
+	}
+
+	/**
+	 * Each position of the first argument produces at most one match.
+	 */
+	@Override
+	public int maxFreq() {
+		return this.args[0].maxFreq();
+	}
+}
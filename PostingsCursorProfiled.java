@@ -0,0 +1,87 @@
+import java.io.IOException;
+
+/**
+ * A cursor that passes every call through to another cursor and records
+ * the time and allocation of the calls, and the documents and positions
+ * returned, in the profile of the operator that the cursor belongs to (see
+ * {@link OperatorProfile}).
+ *
+ */
+public class PostingsCursorProfiled extends PostingsCursor {
+
+	private final PostingsCursor in;
+	private final OperatorProfile.Cursor counters = new OperatorProfile.Cursor();
+
+	/**
+	 * @param in
+	 *            The cursor that is profiled.
+	 * @param profile
+	 *            The profile of the operator.
+	 */
+	public PostingsCursorProfiled(PostingsCursor in, OperatorProfile profile) {
+		this.in = in;
+		profile.add(this.counters);
+	}
+
+	@Override
+	public int docID() {
+		return this.in.docID();
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		long start = System.nanoTime();
+		long allocated = OperatorProfile.allocatedBytes();
+		int doc = this.in.nextDoc();
+		count(start, allocated, doc);
+		return doc;
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		long start = System.nanoTime();
+		long allocated = OperatorProfile.allocatedBytes();
+		int doc = this.in.advance(target);
+		count(start, allocated, doc);
+		return doc;
+	}
+
+	private void count(long start, long allocated, int doc) {
+		this.counters.nanos += System.nanoTime() - start;
+		this.counters.bytes += OperatorProfile.allocatedBytes() - allocated;
+		if (doc != NO_MORE_DOCS)
+			this.counters.docs++;
+	}
+
+	@Override
+	public int freq() throws IOException {
+		long start = System.nanoTime();
+		int freq = this.in.freq();
+		this.counters.nanos += System.nanoTime() - start;
+		return freq;
+	}
+
+	@Override
+	public int nextPosition() throws IOException {
+		long start = System.nanoTime();
+		int position = this.in.nextPosition();
+		this.counters.nanos += System.nanoTime() - start;
+		this.counters.positions++;
+		return position;
+	}
+
+	@Override
+	public int maxFreq() {
+		return this.in.maxFreq();
+	}
+
+	@Override
+	public long cost() {
+		return this.in.cost();
+	}
+
+	@Override
+	public String getField() {
+		return this.in.getField();
+	}
+}
@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The base of the proximity cursors (NEAR/n, WINDOW/n). A document is
+ * returned if every argument contains it and the positions of the arguments
+ * in it match at least once; the subclass decides what a match is.
+ *
+ * All of the state of a scan, including where each argument's positions
+ * have been read up to, is kept in the cursor. The arguments' inverted lists
+ * are only read, so the same lists can be scanned by several cursors at
+ * once, on different threads or from a cache.
+ *
+ */
+public abstract class PostingsCursorProximity extends PostingsCursor {
+
+	protected PostingsCursor[] args;
+	private String field;
+	private int doc = -1;
+
+	// The argument with the fewest documents leads the search for documents
+	// that contain every argument; the others are moved with advance().
+
+	private int lead;
+
+	// Per-argument position buffers for the current candidate document, and
+	// the positions of the matches found in it. The buffers are reused.
+
+	protected int[][] argPositions;
+	protected int[] argTf;
+	protected int[] argPosition;
+	private int[] positions = new int[16];
+	private int tf;
+	private int position;
+
+	/**
+	 * @param args
+	 *            The argument cursors. They must not have been started.
+	 */
+	protected PostingsCursorProximity(List<PostingsCursor> args) {
+		this.args = args.toArray(new PostingsCursor[args.size()]);
+		this.field = this.args[0].getField();
+		this.argPositions = new int[this.args.length][16];
+		this.argTf = new int[this.args.length];
+		this.argPosition = new int[this.args.length];
+
+		for (int j = 1; j < this.args.length; j++)
+			if (this.args[j].cost() < this.args[this.lead].cost())
+				this.lead = j;
+	}
+
+	@Override
+	public int docID() {
+		return this.doc;
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		if (this.doc == NO_MORE_DOCS)
+			return this.doc;
+		return nextMatch(this.args[this.lead].nextDoc());
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		if (this.doc == NO_MORE_DOCS)
+			return this.doc;
+		return nextMatch(this.args[this.lead].advance(target));
+	}
+
+	/**
+	 * Starting from candidate, find the next document that contains all of
+	 * the arguments and at least one match.
+	 *
+	 * @param candidate
+	 *            The current docid of the lead argument.
+	 * @return The docid of the matching document, or NO_MORE_DOCS.
+	 * @throws IOException
+	 */
+	private int nextMatch(int candidate) throws IOException {
+
+		while (candidate != NO_MORE_DOCS) {
+
+			// Find a document that all of the arguments contain.
+
+			int j = 0;
+			while (j < this.args.length) {
+				if (j == this.lead) {
+					j++;
+					continue;
+				}
+				int d = this.args[j].docID();
+				if (d < candidate)
+					d = this.args[j].advance(candidate);
+				if (d == candidate) {
+					j++;
+				} else if (d == NO_MORE_DOCS) {
+					candidate = NO_MORE_DOCS;
+					break;
+				} else {
+					candidate = this.args[this.lead].advance(d);
+					j = 0;
+					if (candidate == NO_MORE_DOCS)
+						break;
+				}
+			}
+
+			if (candidate == NO_MORE_DOCS)
+				break;
+
+			readPositions();
+			this.tf = 0;
+			matchPositions();
+			if (this.tf > 0) {
+				this.doc = candidate;
+				this.position = 0;
+				return this.doc;
+			}
+
+			candidate = this.args[this.lead].nextDoc();
+		}
+
+		this.doc = NO_MORE_DOCS;
+		this.tf = 0;
+		return this.doc;
+	}
+
+	/**
+	 * Read the positions of every argument in the candidate document into
+	 * argPositions, and start each argument's scan at its first position.
+	 */
+	private void readPositions() throws IOException {
+		for (int j = 0; j < this.args.length; j++) {
+			int freq = this.args[j].freq();
+			if (freq > this.argPositions[j].length)
+				this.argPositions[j] = new int[Math.max(freq,
+						this.argPositions[j].length * 2)];
+			for (int i = 0; i < freq; i++)
+				this.argPositions[j][i] = this.args[j].nextPosition();
+			this.argTf[j] = freq;
+			this.argPosition[j] = 0;
+		}
+	}
+
+	/**
+	 * Find the matches in the candidate document, whose positions are in
+	 * argPositions, and report each one with {@link #addMatch(int)} in
+	 * increasing order of position.
+	 */
+	protected abstract void matchPositions();
+
+	/**
+	 * Record a match in the candidate document.
+	 *
+	 * @param p
+	 *            The position of the match.
+	 */
+	protected void addMatch(int p) {
+		if (this.tf == this.positions.length)
+			this.positions = Arrays.copyOf(this.positions, this.tf * 2);
+		this.positions[this.tf++] = p;
+	}
+
+	@Override
+	public int freq() {
+		return this.tf;
+	}
+
+	@Override
+	public int nextPosition() {
+		return this.positions[this.position++];
+	}
+
+	@Override
+	public long cost() {
+		long cost = Long.MAX_VALUE;
+		for (PostingsCursor arg : this.args)
+			cost = Math.min(cost, arg.cost());
+		return cost;
+	}
+
+	@Override
+	public String getField() {
+		return this.field;
+	}
+}
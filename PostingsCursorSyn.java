@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A cursor that returns the union of several inverted lists, as required by
+ * the SYN operator. A document is returned if any argument contains it, and
+ * its positions are the sorted union of the arguments' positions.
+ *
+ * The arguments are kept in a heap ordered by their current docid, so
+ * moving to the next document touches only the arguments that are on it,
+ * and each argument's positions, which are already sorted, are merged
+ * instead of sorted.
+ *
+ */
+public class PostingsCursorSyn extends PostingsCursor {
+
+	// Runs of positions shorter than this on average are sorted, not merged.
+
+	private static final int MIN_MERGED_RUN = 8;
+
+	private PostingsCursor[] args;
+	private String field;
+	private int doc = -1;
+
+	// The started arguments that have documents left.
+
+	private DocidHeap heap;
+
+	// The arguments on the current document, and scratch space for finding
+	// them.
+
+	private int[] matches;
+	private int matchCount;
+	private int[] stack;
+
+	// Positions of the current document, gathered from every argument that
+	// matches it, and the start of each argument's run of positions. The
+	// buffers are reused for every document.
+
+	private int[] positions = new int[16];
+	private int[] scratch = new int[16];
+	private int[] runStarts;
+	private int tf;
+	private int position;
+
+	/**
+	 * @param args
+	 *            The argument cursors. They must not have been started.
+	 */
+	public PostingsCursorSyn(List<PostingsCursor> args) {
+		this.args = args.toArray(new PostingsCursor[args.size()]);
+		this.field = this.args[0].getField();
+		this.heap = new DocidHeap(this.args.length);
+		this.matches = new int[this.args.length];
+		this.stack = new int[this.args.length];
+		this.runStarts = new int[this.args.length + 1];
+	}
+
+	@Override
+	public int docID() {
+		return this.doc;
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+
+		if (this.doc == NO_MORE_DOCS)
+			return this.doc;
+
+		if (this.doc == -1)
+			return start(-1);
+
+		// Move every argument that is on the current document to its next
+		// document. When most of the arguments are on it, as for the common
+		// forms of a word, it is cheaper to build the heap again than to
+		// sift each of them down.
+
+		if (this.matchCount * 4 > this.heap.size()) {
+			for (int i = 0; i < this.matchCount; i++)
+				this.args[this.matches[i]].nextDoc();
+			this.heap.clear();
+			for (int i = 0; i < this.args.length; i++)
+				if (this.args[i].docID() != NO_MORE_DOCS)
+					this.heap.add(i, this.args[i].docID());
+		} else {
+			while (this.heap.size() > 0 && this.heap.topDocid() == this.doc)
+				reposition(this.args[this.heap.top()].nextDoc());
+		}
+
+		return moveTo();
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+
+		if (this.doc == -1)
+			return start(target);
+
+		while (this.heap.size() > 0 && this.heap.topDocid() < target)
+			reposition(this.args[this.heap.top()].advance(target));
+
+		return moveTo();
+	}
+
+	/**
+	 * Start every argument, on its first document or on the first document
+	 * at or after target, and build the heap.
+	 */
+	private int start(int target) throws IOException {
+		for (int i = 0; i < this.args.length; i++) {
+			int d = (target < 0) ? this.args[i].nextDoc() : this.args[i]
+					.advance(target);
+			if (d != NO_MORE_DOCS)
+				this.heap.add(i, d);
+		}
+		return moveTo();
+	}
+
+	/**
+	 * Record the new docid of the argument on top of the heap, dropping the
+	 * argument if it is exhausted.
+	 */
+	private void reposition(int docid) {
+		if (docid == NO_MORE_DOCS)
+			this.heap.pop();
+		else
+			this.heap.updateTop(docid);
+	}
+
+	/**
+	 * Make the smallest docid in the heap the current document and merge its
+	 * positions from the arguments that contain it.
+	 */
+	private int moveTo() throws IOException {
+
+		this.tf = 0;
+		this.position = 0;
+		this.matchCount = 0;
+
+		if (this.heap.size() == 0) {
+			this.doc = NO_MORE_DOCS;
+			return this.doc;
+		}
+
+		this.doc = this.heap.topDocid();
+
+		int runs = this.heap.topArgs(this.matches, this.stack);
+		this.matchCount = runs;
+		for (int r = 0; r < runs; r++) {
+			PostingsCursor arg = this.args[this.matches[r]];
+			int freq = arg.freq();
+			if (this.tf + freq > this.positions.length) {
+				int length = Math.max(this.positions.length * 2, this.tf + freq);
+				this.positions = Arrays.copyOf(this.positions, length);
+				this.scratch = new int[length];
+			}
+
+			this.runStarts[r] = this.tf;
+			for (int i = 0; i < freq; i++)
+				this.positions[this.tf++] = arg.nextPosition();
+		}
+		this.runStarts[runs] = this.tf;
+
+		// Many short runs, such as one or two positions from each of dozens
+		// of arguments, are sorted faster than they are merged.
+
+		if (this.tf >= runs * MIN_MERGED_RUN)
+			mergeRuns(runs);
+		else
+			Arrays.sort(this.positions, 0, this.tf);
+		return this.doc;
+	}
+
+	/**
+	 * Merge the sorted runs of positions pairwise, in rounds, until one
+	 * sorted run is left. Each round reads the runs from one buffer and
+	 * writes the merged runs to the other, and halves the number of runs, so
+	 * k runs of n positions in all take O(n log k) time.
+	 */
+	private void mergeRuns(int runs) {
+		while (runs > 1) {
+			int[] from = this.positions;
+			int[] to = this.scratch;
+			int merged = 0;
+			for (int r = 0; r < runs; r += 2) {
+				int start = this.runStarts[r];
+				int end = this.runStarts[Math.min(r + 2, runs)];
+				if (r + 1 < runs)
+					merge(from, start, this.runStarts[r + 1], end, to);
+				else
+					System.arraycopy(from, start, to, start, end - start);
+				this.runStarts[merged++] = start;
+			}
+			this.runStarts[merged] = this.tf;
+			runs = merged;
+
+			this.positions = to;
+			this.scratch = from;
+		}
+	}
+
+	/**
+	 * Merge the sorted positions [start, mid) and [mid, end) of one buffer
+	 * into the same range of another.
+	 */
+	private static void merge(int[] from, int start, int mid, int end, int[] to) {
+		int i = start;
+		int j = mid;
+		int k = start;
+		while (i < mid && j < end)
+			to[k++] = (from[j] < from[i]) ? from[j++] : from[i++];
+		while (i < mid)
+			to[k++] = from[i++];
+		while (j < end)
+			to[k++] = from[j++];
+	}
+
+	@Override
+	public int freq() {
+		return this.tf;
+	}
+
+	@Override
+	public int nextPosition() {
+		return this.positions[this.position++];
+	}
+
+	@Override
+	public int maxFreq() {
+		long maxFreq = 0;
+		for (PostingsCursor arg : this.args)
+			maxFreq += arg.maxFreq();
+		return (int) Math.min(Integer.MAX_VALUE, maxFreq);
+	}
+
+	@Override
+	public long cost() {
+		long cost = 0;
+		for (PostingsCursor arg : this.args)
+			cost += arg.cost();
+		return cost;
+	}
+
+	@Override
+	public String getField() {
+		return this.field;
+	}
+}
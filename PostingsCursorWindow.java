@@ -0,0 +1,75 @@
+import java.util.List;
+
+/**
+ * A cursor that returns the matches of the WINDOW/n operator over its
+ * argument cursors. A document is returned if every argument contains it and
+ * the arguments occur, in any order, within a window of n positions: the
+ * first and last of them are less than n positions apart. Matches do not
+ * share argument positions. The positions returned for a document are the
+ * ends of the windows.
+ *
+ */
+public class PostingsCursorWindow extends PostingsCursorProximity {
+
+	private int size;
+
+	/**
+	 * @param size
+	 *            The width of the window, in positions.
+	 * @param args
+	 *            The argument cursors. They must not have been started.
+	 */
+	public PostingsCursorWindow(int size, List<PostingsCursor> args) {
+		super(args);
+		this.size = size;
+	}
+
+	/**
+	 * Match the positions of the current candidate document by sliding a
+	 * window over the arguments' current positions. If they fit in the
+	 * window they are a match and every argument moves on; otherwise the
+	 * argument at the start of the window moves on, since no later window
+	 * can contain its position. Each step consumes at least one position, so
+	 * the scan is linear in the number of positions.
+	 */
+	@Override
+	protected void matchPositions() {
+
+		while (true) {
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			int first = 0;
+
+			for (int j = 0; j < this.args.length; j++) {
+				if (this.argPosition[j] >= this.argTf[j])
+					return;
+				int p = this.argPositions[j][this.argPosition[j]];
+				if (p < min) {
+					min = p;
+					first = j;
+				}
+				if (p > max)
+					max = p;
+			}
+
+			if (max - min < this.size) {
+				addMatch(max);
+				for (int j = 0; j < this.args.length; j++)
+					this.argPosition[j]++;
+			} else {
+				this.argPosition[first]++;
+			}
+		}
+	}
+
+	/**
+	 * Each match uses one position of every argument.
+	 */
+	@Override
+	public int maxFreq() {
+		int maxFreq = Integer.MAX_VALUE;
+		for (PostingsCursor arg : this.args)
+			maxFreq = Math.min(maxFreq, arg.maxFreq());
+		return maxFreq;
+	}
+}
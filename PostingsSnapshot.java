@@ -0,0 +1,253 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read-only snapshot of an index, written by {@link PostingsSnapshotWriter}
+ * and memory-mapped with FileChannel.map. Opening a snapshot only reads its
+ * header, field names and external ids; postings are read in place from the
+ * mapped file when a term is looked up, so nothing is translated or copied.
+ *
+ * The snapshot holds the term dictionary, the postings of every term in the
+ * {@link CompressedInvList} format, the length of every field of every
+ * document, and the external ids and their ordinals. Layout, in order:
+ *
+ * <pre>
+ * header     MAGIC, VERSION, maxDoc, #fields, #terms, and the offsets of
+ *            the sections below (see HEADER_LENGTH)
+ * fields     the field names, with writeUTF
+ * postings   the encoded lists; no list crosses a CHUNK_SIZE boundary
+ * dictionary #terms entries of ENTRY_LENGTH bytes, sorted by field, then
+ *            term bytes: field, term start, term length, df, ctf, maxFreq,
+ *            #blocks, data length, postings offset (long)
+ * terms      the UTF-8 bytes of the terms
+ * lengths    maxDoc ints per field
+ * ids        the external ids, see ExternalIdStore.writeTo()
+ * ordinals   maxDoc ints
+ * </pre>
+ *
+ */
+public class PostingsSnapshot {
+
+	static final int MAGIC = 0x50534E50; // "PSNP"
+	static final int VERSION = 2;
+	static final int HEADER_LENGTH = 5 * 4 + 7 * 8;
+	static final int ENTRY_LENGTH = 8 * 4 + 8;
+
+	// A single mapping is limited to 2 GB, so the postings are mapped in
+	// chunks of this size.
+
+	static final int CHUNK_SIZE = 1 << 30;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private int maxDoc;
+	private String[] fields;
+	private Map<String, Integer> fieldOrds = new HashMap<String, Integer>();
+
+	private MappedByteBuffer[] postings;
+	private MappedByteBuffer dictionary;
+	private MappedByteBuffer terms;
+	private MappedByteBuffer[] lengths;
+	private int numTerms;
+
+	private ExternalIdStore externalIds;
+	private ExternalIdOrdinals externalIdOrdinals;
+
+	/**
+	 * Open a snapshot.
+	 *
+	 * @param path
+	 *            The snapshot file.
+	 * @return The snapshot.
+	 * @throws IOException
+	 *             If the file cannot be read or is not a snapshot.
+	 */
+	public static PostingsSnapshot open(String path) throws IOException {
+
+		RandomAccessFile file = new RandomAccessFile(new File(path), "r");
+		try {
+			return new PostingsSnapshot(file.getChannel());
+		} finally {
+			file.close(); // The mappings stay valid.
+		}
+	}
+
+	private PostingsSnapshot(FileChannel channel) throws IOException {
+
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				HEADER_LENGTH);
+
+		if (header.getInt() != MAGIC || header.getInt() != VERSION)
+			throw new IOException("Not a postings snapshot, or wrong version");
+
+		this.maxDoc = header.getInt();
+		this.fields = new String[header.getInt()];
+		this.numTerms = header.getInt();
+
+		long fieldsOffset = header.getLong();
+		long postingsOffset = header.getLong();
+		long dictionaryOffset = header.getLong();
+		long termsOffset = header.getLong();
+		long lengthsOffset = header.getLong();
+		long idsOffset = header.getLong();
+		long ordinalsOffset = header.getLong();
+
+		ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY,
+				fieldsOffset, postingsOffset - fieldsOffset);
+		for (int f = 0; f < this.fields.length; f++) {
+			byte[] name = new byte[in.getShort() & 0xFFFF];
+			in.get(name);
+			this.fields[f] = new String(name, UTF8);
+			this.fieldOrds.put(this.fields[f], f);
+		}
+
+		long postingsLength = dictionaryOffset - postingsOffset;
+		this.postings = new MappedByteBuffer[(int) ((postingsLength
+				+ CHUNK_SIZE - 1) / CHUNK_SIZE)];
+		for (int c = 0; c < this.postings.length; c++)
+			this.postings[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+					postingsOffset + (long) c * CHUNK_SIZE,
+					Math.min(CHUNK_SIZE, postingsLength - (long) c * CHUNK_SIZE));
+
+		this.dictionary = channel.map(FileChannel.MapMode.READ_ONLY,
+				dictionaryOffset, termsOffset - dictionaryOffset);
+		this.terms = channel.map(FileChannel.MapMode.READ_ONLY, termsOffset,
+				lengthsOffset - termsOffset);
+
+		this.lengths = new MappedByteBuffer[this.fields.length];
+		for (int f = 0; f < this.fields.length; f++)
+			this.lengths[f] = channel.map(FileChannel.MapMode.READ_ONLY,
+					lengthsOffset + 4L * this.maxDoc * f, 4L * this.maxDoc);
+
+		this.externalIds = ExternalIdStore.readFrom(channel.map(
+				FileChannel.MapMode.READ_ONLY, idsOffset, ordinalsOffset
+						- idsOffset));
+
+		int[] ordinals = new int[this.maxDoc];
+		channel.map(FileChannel.MapMode.READ_ONLY, ordinalsOffset,
+				4L * this.maxDoc).asIntBuffer().get(ordinals);
+		this.externalIdOrdinals = new ExternalIdOrdinals(ordinals);
+	}
+
+	/**
+	 * Look up the postings of a term.
+	 *
+	 * @param term
+	 *            The processed (stemmed, lower-cased, etc) term string.
+	 * @param field
+	 *            The field that the term occurs in.
+	 * @return The postings, read from the mapped file. The list is empty if
+	 *         the term does not occur in the field.
+	 */
+	public CompressedInvList get(String term, String field) {
+
+		Integer fieldOrd = this.fieldOrds.get(field);
+		int entry = (fieldOrd == null) ? -1 : find(fieldOrd,
+				term.getBytes(UTF8));
+
+		if (entry < 0)
+			return new CompressedInvList(field, 0, 0, 0, 0, 0,
+					ByteBuffer.allocate(0));
+
+		int e = entry * ENTRY_LENGTH;
+		int df = this.dictionary.getInt(e + 12);
+		int ctf = this.dictionary.getInt(e + 16);
+		int maxFreq = this.dictionary.getInt(e + 20);
+		int blocks = this.dictionary.getInt(e + 24);
+		int dataLength = this.dictionary.getInt(e + 28);
+		long offset = this.dictionary.getLong(e + 32);
+
+		ByteBuffer in = this.postings[(int) (offset / CHUNK_SIZE)]
+				.duplicate();
+		in.position((int) (offset % CHUNK_SIZE));
+		return new CompressedInvList(field, df, ctf, maxFreq, blocks,
+				dataLength, in);
+	}
+
+	/**
+	 * Binary search the dictionary.
+	 *
+	 * @return The index of the entry, or -1 if there is none.
+	 */
+	private int find(int fieldOrd, byte[] term) {
+
+		int lo = 0;
+		int hi = this.numTerms - 1;
+
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int e = mid * ENTRY_LENGTH;
+
+			int c = this.dictionary.getInt(e) - fieldOrd;
+			if (c == 0)
+				c = compareTerm(this.dictionary.getInt(e + 4),
+						this.dictionary.getInt(e + 8), term);
+
+			if (c < 0)
+				lo = mid + 1;
+			else if (c > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare a term in the terms section with a term, as unsigned bytes,
+	 * which is the order of Lucene's term dictionary.
+	 */
+	private int compareTerm(int start, int length, byte[] term) {
+		int n = Math.min(length, term.length);
+		for (int i = 0; i < n; i++) {
+			int c = (this.terms.get(start + i) & 0xFF) - (term[i] & 0xFF);
+			if (c != 0)
+				return c;
+		}
+		return length - term.length;
+	}
+
+	/**
+	 * Returns the length of a field in a document.
+	 *
+	 * @param field
+	 *            The field.
+	 * @param docid
+	 *            The internal docid.
+	 * @return The length, or 0 if the field is not in the snapshot.
+	 */
+	public long getDocLength(String field, int docid) {
+		Integer fieldOrd = this.fieldOrds.get(field);
+		if (fieldOrd == null)
+			return 0;
+		return this.lengths[fieldOrd].getInt(4 * docid);
+	}
+
+	/**
+	 * @return The external ids of the documents.
+	 */
+	public ExternalIdStore getExternalIds() {
+		return this.externalIds;
+	}
+
+	/**
+	 * @return The ordinals of the external ids.
+	 */
+	public ExternalIdOrdinals getExternalIdOrdinals() {
+		return this.externalIdOrdinals;
+	}
+
+	/**
+	 * @return The number of documents, including deleted ones.
+	 */
+	public int maxDoc() {
+		return this.maxDoc;
+	}
+}
@@ -0,0 +1,210 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Export an index to a {@link PostingsSnapshot}. Every term of every indexed
+ * field is read once from Lucene and written in our own format, so that
+ * later runs can map the snapshot instead of opening the index. Terms of
+ * fields that are indexed without positions are not exported.
+ *
+ * Usage: java PostingsSnapshotWriter indexPath snapshotPath
+ *
+ */
+public class PostingsSnapshotWriter {
+
+	private DataOutputStream out;
+	private FileOutputStream file;
+
+	// Dictionary entries, in the order they are written.
+
+	private int numTerms = 0;
+	private int[] entries = new int[8 * 1024];
+	private long[] offsets = new long[1024];
+	private ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+
+	public static void main(String[] args) throws IOException {
+
+		if (args.length != 2) {
+			System.err.println("Usage:  java PostingsSnapshotWriter "
+					+ "indexPath snapshotPath");
+			System.exit(1);
+		}
+
+		QryEval.READER = DirectoryReader.open(FSDirectory.open(new File(
+				args[0])));
+
+		long start = System.currentTimeMillis();
+		new PostingsSnapshotWriter().write(QryEval.READER, new File(args[1]));
+		System.out.println("time: " + (System.currentTimeMillis() - start)
+				/ 1000);
+	}
+
+	/**
+	 * Write a snapshot of an index. The index must be open as QryEval.READER,
+	 * which is where postings are read from.
+	 *
+	 * @param reader
+	 *            The index reader.
+	 * @param path
+	 *            The snapshot file.
+	 * @throws IOException
+	 */
+	public void write(IndexReader reader, File path) throws IOException {
+
+		List<String> fields = new ArrayList<String>(
+				MultiFields.getIndexedFields(reader));
+		Collections.sort(fields);
+		int maxDoc = reader.maxDoc();
+
+		this.file = new FileOutputStream(path);
+		this.out = new DataOutputStream(new BufferedOutputStream(this.file,
+				1 << 16));
+
+		try {
+			this.out.write(new byte[PostingsSnapshot.HEADER_LENGTH]);
+
+			long fieldsOffset = position();
+			for (String field : fields)
+				this.out.writeUTF(field);
+
+			long postingsOffset = position();
+			long postingsLength = 0;
+
+			for (int f = 0; f < fields.size(); f++) {
+				Terms terms = MultiFields.getTerms(reader, fields.get(f));
+				if (terms == null)
+					continue;
+
+				TermsEnum ithTerm = terms.iterator(null);
+				BytesRef term;
+				while ((term = ithTerm.next()) != null) {
+					CompressedInvList list = new CompressedInvList(
+							new PostingsCursorLucene(term.utf8ToString(),
+									fields.get(f)));
+					if (list.df == 0)
+						continue;
+
+					// Keep each list inside one mapped chunk.
+
+					long length = list.getEncodedLength();
+					if (length > PostingsSnapshot.CHUNK_SIZE)
+						throw new IOException("Inverted list of "
+								+ term.utf8ToString() + " is too large");
+					long used = postingsLength % PostingsSnapshot.CHUNK_SIZE;
+					if (used + length > PostingsSnapshot.CHUNK_SIZE) {
+						long pad = PostingsSnapshot.CHUNK_SIZE - used;
+						for (long i = 0; i < pad; i++)
+							this.out.write(0);
+						postingsLength += pad;
+					}
+
+					addEntry(f, term, list, postingsLength);
+					list.writeTo(this.out);
+					postingsLength += length;
+				}
+			}
+
+			long dictionaryOffset = position();
+			for (int t = 0; t < this.numTerms; t++) {
+				for (int i = 0; i < 8; i++)
+					this.out.writeInt(this.entries[8 * t + i]);
+				this.out.writeLong(this.offsets[t]);
+			}
+
+			long termsOffset = position();
+			this.termBytes.writeTo(this.out);
+
+			long lengthsOffset = position();
+			for (String field : fields) {
+				NumericDocValues norms = MultiDocValues.getNormValues(reader,
+						field);
+				for (int d = 0; d < maxDoc; d++)
+					this.out.writeInt(norms == null ? 0 : (int) norms.get(d));
+			}
+
+			long idsOffset = position();
+			ExternalIdStore ids = new ExternalIdStore(reader);
+			ids.writeTo(this.out);
+
+			long ordinalsOffset = position();
+			ExternalIdOrdinals ordinals = ids.getOrdinals();
+			for (int d = 0; d < maxDoc; d++)
+				this.out.writeInt(ordinals.get(d));
+
+			this.out.close();
+
+			ByteBuffer header = ByteBuffer
+					.allocate(PostingsSnapshot.HEADER_LENGTH);
+			header.putInt(PostingsSnapshot.MAGIC)
+					.putInt(PostingsSnapshot.VERSION).putInt(maxDoc)
+					.putInt(fields.size()).putInt(this.numTerms)
+					.putLong(fieldsOffset).putLong(postingsOffset)
+					.putLong(dictionaryOffset).putLong(termsOffset)
+					.putLong(lengthsOffset).putLong(idsOffset)
+					.putLong(ordinalsOffset).flip();
+
+			RandomAccessFile raf = new RandomAccessFile(path, "rw");
+			try {
+				raf.getChannel().write(header, 0);
+			} finally {
+				raf.close();
+			}
+		} finally {
+			this.out.close();
+		}
+
+		System.out.println(fields.size() + " fields, " + this.numTerms
+				+ " terms, " + path.length() + " bytes");
+	}
+
+	/**
+	 * @return The number of bytes written so far.
+	 */
+	private long position() throws IOException {
+		this.out.flush();
+		return this.file.getChannel().position();
+	}
+
+	private void addEntry(int field, BytesRef term, CompressedInvList list,
+			long offset) {
+
+		if (this.numTerms == this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, this.numTerms * 2);
+			this.entries = Arrays.copyOf(this.entries, this.numTerms * 2 * 8);
+		}
+
+		int[] e = this.entries;
+		int i = 8 * this.numTerms;
+		e[i] = field;
+		e[i + 1] = this.termBytes.size();
+		e[i + 2] = term.length;
+		e[i + 3] = list.df;
+		e[i + 4] = list.ctf;
+		e[i + 5] = list.getMaxFreq();
+		e[i + 6] = list.getBlockCount();
+		e[i + 7] = list.getDataLength();
+		this.offsets[this.numTerms++] = offset;
+
+		this.termBytes.write(term.bytes, term.offset, term.length);
+	}
+}
@@ -0,0 +1,30 @@
+import java.io.IOException;
+
+/**
+ * A line of the query file that has been parsed and optimized by
+ * {@link QryEval#prepareEntry(String)}, so that it can be evaluated later,
+ * possibly on another thread. Preparing a query can fail; the failure is
+ * kept and reported when the query is evaluated, so it is reported once.
+ *
+ */
+public class PreparedQuery {
+
+	// The query tree, or null if the query is malformed or could not be
+	// prepared.
+
+	final Qryop tree;
+
+	// Why the query could not be prepared, or null.
+
+	final IOException error;
+
+	// The time that preparing the query took.
+
+	final long nanos;
+
+	PreparedQuery(Qryop tree, IOException error, long nanos) {
+		this.tree = tree;
+		this.error = error;
+		this.nanos = nanos;
+	}
+}
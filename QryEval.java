@@ -12,7 +12,6 @@
 import java.io.*;
 import java.util.*;
 
-import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
@@ -33,6 +32,54 @@ public class QryEval {
 
 	public static IndexReader READER;
 
+	// The rank of each document's external id, used to break score ties
+	// without reading stored fields. Computed once the index is open.
+
+	public static ExternalIdOrdinals EXTERNAL_ID_ORDINALS;
+
+	// The external ids of all documents, loaded once the index is open.
+
+	public static ExternalIdStore EXTERNAL_IDS;
+
+	// Inverted lists of recently used terms, shared by all queries. Null if
+	// the postingsCacheBytes parameter is 0.
+
+	public static PostingsCache POSTINGS_CACHE;
+
+	// A memory-mapped snapshot of the index, written by
+	// PostingsSnapshotWriter. If the snapshotPath parameter is given, the
+	// snapshot replaces the Lucene index, which is not opened at all.
+
+	public static PostingsSnapshot SNAPSHOT;
+
+	// The top documents of recent queries, keyed by canonical query. Null if
+	// the resultCacheSize parameter is 0.
+
+	public static ResultCache RESULT_CACHE;
+
+	private static final int DEFAULT_RESULT_CACHE_SIZE = 1024;
+
+	// The SYN, NEAR and WINDOW subtrees that occur more than once among the
+	// queries in the pipeline. Null if the shareSubtrees parameter is false
+	// or the sharedSubtreeBytes parameter is 0.
+
+	public static SharedSubtrees SHARED_SUBTREES;
+
+	// Analyzed query tokens, so that each distinct token is analyzed once.
+
+	private static final int DEFAULT_ANALYZER_CACHE_SIZE = 100000;
+
+	private static final long DEFAULT_FORK_THRESHOLD = 50000;
+
+	private static AnalyzerCache ANALYZER_CACHE = new AnalyzerCache(
+			DEFAULT_ANALYZER_CACHE_SIZE);
+
+	private static final long DEFAULT_POSTINGS_CACHE_BYTES = 64L << 20;
+
+	private static final long DEFAULT_SHARED_SUBTREE_BYTES = 64L << 20;
+
+	private static final int DEFAULT_PIPELINE_CAPACITY = 1024;
+
 	// Create and configure an English analyzer that will be used for
 	// query parsing.
 
@@ -46,6 +93,29 @@ public class QryEval {
 
 	private static final int NUM_DOCS = 100;
 
+	// Query evaluation strategy, set by the evaluationMode parameter. TAAT
+	// (the default) evaluates each query operator's arguments completely
+	// before combining them; DAAT evaluates the whole query tree one
+	// document at a time. Both produce the same results.
+
+	private static boolean documentAtATime = false;
+
+	// Whether queries are rewritten by QueryOptimizer before they are
+	// evaluated, and whether the optimized plan is printed.
+
+	private static boolean optimizeQueries = true;
+	private static boolean printPlan = false;
+
+	// Whether the work of every query operator is recorded and printed with
+	// the query, as an annotated query tree (see OperatorProfile).
+
+	private static boolean profileQueries = false;
+
+	// Whether the caches' statistics are printed at the end of the run.
+	// They are also exported with the other metrics (see Metrics).
+
+	private static boolean printCacheStats = false;
+
 	/**
 	 * @param args
 	 *            The only argument is the path to the parameter file.
@@ -61,32 +131,7 @@ public class QryEval {
 			System.exit(1);
 		}
 
-		// read in the parameter file; one parameter per line in format of
-		// key=value
-		Map<String, String> params = new HashMap<String, String>();
-		Scanner scan = new Scanner(new File(args[0]));
-		String line = null;
-		do {
-			line = scan.nextLine();
-			String[] pair = line.split("=");
-			params.put(pair[0].trim(), pair[1].trim());
-		} while (scan.hasNext());
-		scan.close();
-
-		// parameters required for this example to run
-		if (!params.containsKey("indexPath")) {
-			System.err.println("Error: Parameters were missing.");
-			System.exit(1);
-		}
-
-		// open the index
-		READER = DirectoryReader.open(FSDirectory.open(new File(params
-				.get("indexPath"))));
-
-		if (READER == null) {
-			System.err.println(usage);
-			System.exit(1);
-		}
+		Map<String, String> params = readParameters(args[0]);
 
 		/*
 		 * Open query file
@@ -97,26 +142,158 @@ public class QryEval {
 			System.exit(1);
 		}
 
+		RetrievalModel r = initialize(params);
+
 		/*
-		 * Read the queries one by one from the query file path
+		 * Number of queries to evaluate in parallel
 		 */
-		List<String> queries = new ArrayList<String>();
+		int threads = 1;
+		if (params.containsKey("threads")) {
+			threads = Integer.parseInt(params.get("threads"));
+			if (threads < 1) {
+				fatalError("Error: threads must be at least 1");
+			}
+		}
+
+		/*
+		 * Evaluate the subtrees that occur more than once among the queries
+		 * in the pipeline once. The pipeline counts them as it reads the
+		 * queries. Shared lists cover the whole index, so they are not used
+		 * when queries are split by segment.
+		 */
+		long sharedBytes = DEFAULT_SHARED_SUBTREE_BYTES;
+		if (params.containsKey("sharedSubtreeBytes"))
+			sharedBytes = Long.parseLong(params.get("sharedSubtreeBytes"));
+		if (!"false".equals(params.get("shareSubtrees")) && sharedBytes > 0
+				&& !SegmentEvaluator.isEnabled())
+			SHARED_SUBTREES = new SharedSubtrees(sharedBytes);
+
+		/*
+		 * The most queries that are read ahead of the output file, counting
+		 * the queries that are being evaluated
+		 */
+		int pipelineCapacity = DEFAULT_PIPELINE_CAPACITY;
+		if (params.containsKey("pipelineCapacity"))
+			pipelineCapacity = Integer.parseInt(params.get("pipelineCapacity"));
+		if (pipelineCapacity < 1)
+			fatalError("Error: pipelineCapacity must be at least 1");
+
+		/*
+		 * Stream the queries from the query file through evaluation to the
+		 * given output file, writing the top 100 results of each query in
+		 * query file order
+		 */
+		String outputFile = params.get("trecEvalOutputPath");
 		try {
 			BufferedReader queryReader = new BufferedReader(new FileReader(
 					params.get("queryFilePath")));
-			while (true) {
-				String temp = queryReader.readLine();
-				if (temp == null) {
-					break;
-				}
-				queries.add(temp);
-			}
+			BufferedWriter writer = new BufferedWriter(new FileWriter(
+					outputFile));
+			new QueryPipeline(r, threads, pipelineCapacity).run(queryReader,
+					writer);
 			queryReader.close();
+			writer.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.err.println(usage);
 			System.exit(1);
 		}
+		SegmentEvaluator.shutdown();
+
+		// Later HW assignments will use more RAM, so you want to be aware
+		// of how much memory your program uses.
+
+		printMemoryUsage(false);
+
+		// print out the total time used for running the program
+		System.out.println("time: " + (System.currentTimeMillis() - start)
+				/ 1000);
+		if (printCacheStats) {
+			if (POSTINGS_CACHE != null)
+				System.out.println(POSTINGS_CACHE);
+			if (RESULT_CACHE != null)
+				System.out.println(RESULT_CACHE);
+			if (SHARED_SUBTREES != null)
+				System.out.println(SHARED_SUBTREES);
+		}
+		Metrics.stopExport();
+
+	}
+
+	/**
+	 * Read a parameter file, which has one parameter per line in the format
+	 * key=value.
+	 * 
+	 * @param path
+	 *            The path of the parameter file.
+	 * @return The parameters.
+	 * @throws IOException
+	 */
+	static Map<String, String> readParameters(String path) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		Scanner scan = new Scanner(new File(path));
+		String line = null;
+		do {
+			line = scan.nextLine();
+			String[] pair = line.split("=");
+			params.put(pair[0].trim(), pair[1].trim());
+		} while (scan.hasNext());
+		scan.close();
+		return params;
+	}
+
+	/**
+	 * Open the index (or snapshot) named by the parameters, create the
+	 * retrieval model, and configure query evaluation. Exits if a required
+	 * parameter is missing or the index cannot be opened.
+	 * 
+	 * @param params
+	 *            The parameters, from {@link #readParameters(String)}.
+	 * @return The retrieval model.
+	 * @throws IOException
+	 */
+	static RetrievalModel initialize(Map<String, String> params)
+			throws IOException {
+
+		// parameters required for this example to run
+		if (!params.containsKey("indexPath")
+				&& !params.containsKey("snapshotPath")) {
+			System.err.println("Error: Parameters were missing.");
+			System.exit(1);
+		}
+
+		if (params.containsKey("snapshotPath")) {
+
+			// map the snapshot; it has everything that evaluation needs
+			SNAPSHOT = PostingsSnapshot.open(params.get("snapshotPath"));
+			EXTERNAL_ID_ORDINALS = SNAPSHOT.getExternalIdOrdinals();
+			EXTERNAL_IDS = SNAPSHOT.getExternalIds();
+
+		} else {
+
+			// open the index
+			READER = DirectoryReader.open(FSDirectory.open(new File(params
+					.get("indexPath"))));
+
+			if (READER == null) {
+				System.err.println(usage);
+				System.exit(1);
+			}
+
+			// Load the external ids and their ordinals. If externalIdPath is
+			// given, they are saved there and reloaded quickly on the next
+			// run with the same index.
+
+			EXTERNAL_IDS = ExternalIdStore.open(READER,
+					params.get("externalIdPath"));
+			EXTERNAL_ID_ORDINALS = EXTERNAL_IDS.getOrdinals();
+
+			long cacheBytes = DEFAULT_POSTINGS_CACHE_BYTES;
+			if (params.containsKey("postingsCacheBytes"))
+				cacheBytes = Long.parseLong(params.get("postingsCacheBytes"));
+			if (cacheBytes > 0)
+				POSTINGS_CACHE = new PostingsCache(cacheBytes);
+		}
 
 		/*
 		 * Instantiate the retrieval model according to the given name with java
@@ -134,35 +311,79 @@ public class QryEval {
 		}
 
 		/*
-		 * Evaluate the query and save the result to the given output file
+		 * Choose the evaluation strategy
 		 */
-		String outputFile = params.get("trecEvalOutputPath");
-		try {
-			BufferedWriter writer = new BufferedWriter(new FileWriter(
-					outputFile));
-			for (String query : queries) {
-				/*
-				 * print the top 100 result for each query
-				 */
-				for (String entry : outputEntry(query, r)) {
-					writer.write(entry + '\n');
-				}
+		if (params.containsKey("evaluationMode")) {
+			String mode = params.get("evaluationMode");
+			if (mode.equalsIgnoreCase("DAAT")) {
+				documentAtATime = true;
+			} else if (!mode.equalsIgnoreCase("TAAT")) {
+				fatalError("Error: Unknown evaluationMode: " + mode);
 			}
-			writer.close();
-		} catch (IOException e) {
-			System.err.println(usage);
-			System.exit(1);
 		}
 
-		// Later HW assignments will use more RAM, so you want to be aware
-		// of how much memory your program uses.
+		if (params.containsKey("analyzerCacheSize"))
+			ANALYZER_CACHE = new AnalyzerCache(Integer.parseInt(params
+					.get("analyzerCacheSize")));
 
-		printMemoryUsage(false);
+		/*
+		 * Query optimization
+		 */
+		optimizeQueries = !"false".equals(params.get("optimizeQueries"));
+		printPlan = "true".equals(params.get("printPlan"));
+		profileQueries = "true".equals(params.get("profileQueries"));
+		printCacheStats = "true".equals(params.get("printCacheStats"));
 
-		// print out the total time used for running the program
-		System.out.println("time: " + (System.currentTimeMillis() - start)
-				/ 1000);
+		/*
+		 * Export the metrics at the end of the run, and every
+		 * metricsInterval seconds if it is given
+		 */
+		long metricsInterval = 0;
+		if (params.containsKey("metricsInterval"))
+			metricsInterval = Long.parseLong(params.get("metricsInterval"));
+		Metrics.startExport(params.get("metricsPath"),
+				params.get("metricsJsonPath"), metricsInterval);
+
+		/*
+		 * Result cache size, in queries, and how long results may be used,
+		 * in seconds (0 means forever)
+		 */
+		int resultCacheSize = DEFAULT_RESULT_CACHE_SIZE;
+		if (params.containsKey("resultCacheSize"))
+			resultCacheSize = Integer.parseInt(params.get("resultCacheSize"));
+		long resultCacheTTL = 0;
+		if (params.containsKey("resultCacheTTL"))
+			resultCacheTTL = Long.parseLong(params.get("resultCacheTTL"));
+		if (resultCacheSize > 0)
+			RESULT_CACHE = new ResultCache(resultCacheSize,
+					resultCacheTTL * 1000);
 
+		/*
+		 * Evaluate the expensive arguments of query operators in parallel.
+		 * forkThreshold is the smallest estimated cost, in postings, of an
+		 * argument that is evaluated by another thread.
+		 */
+		if (params.containsKey("forkJoinThreads")) {
+			int forkJoinThreads = Integer.parseInt(params
+					.get("forkJoinThreads"));
+			long forkThreshold = DEFAULT_FORK_THRESHOLD;
+			if (params.containsKey("forkThreshold"))
+				forkThreshold = Long.parseLong(params.get("forkThreshold"));
+			if (forkJoinThreads > 1)
+				ForkJoinEvaluator.enable(forkJoinThreads, forkThreshold);
+		}
+
+		/*
+		 * Evaluate each query on every segment of the index in parallel and
+		 * merge the segments' top documents.
+		 */
+		if (params.containsKey("segmentThreads")) {
+			int segmentThreads = Integer.parseInt(params.get("segmentThreads"));
+			if (segmentThreads > 1 && SNAPSHOT == null)
+				SegmentEvaluator.enable(segmentThreads);
+		}
+
+		return r;
 	}
 
 	/**
@@ -188,6 +409,9 @@ public class QryEval {
 	 * @throws IOException
 	 */
 	static String getExternalDocid(int iid) throws IOException {
+		if (EXTERNAL_IDS != null)
+			return EXTERNAL_IDS.getExternalDocid(iid);
+
 		Document d = QryEval.READER.document(iid);
 		String eid = d.get("externalId");
 		return eid;
@@ -204,6 +428,13 @@ public class QryEval {
 	 * @throws Exception
 	 */
 	static int getInternalDocid(String externalId) throws Exception {
+		if (EXTERNAL_IDS != null) {
+			int iid = EXTERNAL_IDS.getInternalDocid(externalId);
+			if (iid < 0)
+				throw new Exception("External id not found.");
+			return iid;
+		}
+
 		Query q = new TermQuery(new Term("externalId", externalId));
 
 		IndexSearcher searcher = new IndexSearcher(QryEval.READER);
@@ -218,6 +449,50 @@ public class QryEval {
 		}
 	}
 
+	/**
+	 * Parse a query and, unless the optimizeQueries parameter is false,
+	 * rewrite it with {@link QueryOptimizer}. When arguments are evaluated
+	 * in parallel, the cost of every operator is estimated here, with the
+	 * dfs that the optimizer has already looked up.
+	 * 
+	 * @param qString
+	 *            A string containing a query.
+	 * @return The query tree, or null if the query is malformed.
+	 * @throws IOException
+	 */
+	static Qryop prepareQuery(String qString) throws IOException {
+		Qryop q = parseQuery(qString);
+		QueryOptimizer optimizer = new QueryOptimizer();
+		if (q != null && optimizeQueries)
+			q = optimizer.optimize(q);
+		if (q != null && ForkJoinEvaluator.isEnabled())
+			optimizer.estimateCost(q);
+		return q;
+	}
+
+	/**
+	 * Prepare the query of a line of the query file, recording the time
+	 * that it takes.
+	 * 
+	 * @param query
+	 *            A line of the query file, "id:query".
+	 * @return The prepared query, which holds the error if it could not be
+	 *         prepared.
+	 */
+	static PreparedQuery prepareEntry(String query) {
+		long start = System.nanoTime();
+		Qryop q = null;
+		IOException error = null;
+		try {
+			q = prepareQuery(query.split(":")[1]);
+		} catch (IOException e) {
+			error = e;
+		}
+		long nanos = System.nanoTime() - start;
+		Metrics.PARSE_TIME.record(nanos);
+		return new PreparedQuery(q, error, nanos);
+	}
+
 	/**
 	 * parseQuery converts a query string into a query tree.
 	 * 
@@ -235,48 +510,23 @@ public class QryEval {
 		// Add a default query operator to an unstructured query. This
 		// is a tiny bit easier if unnecessary whitespace is removed.
 
-		qString = qString.trim();
+		qString = "#or(" + qString.trim() + ")";
 
-		// if (qString.charAt(0) != '#') {
-		qString = "#or(" + qString + ")";
-		// }
+		// Scan the query once. Each pass of the loop processes one
+		// delimiter or one token. To improve efficiency and clarity, the
+		// query operator on the top of the stack is also stored in
+		// currentOp.
 
-		// Tokenize the query.
+		int length = qString.length();
+		int i = 0;
+		boolean finished = false;
 
-		StringTokenizer tokens = new StringTokenizer(qString, "\t\n\r ,()",
-				true);
-		String token = null;
+		while (i < length) {
 
-		// Each pass of the loop processes one token. To improve
-		// efficiency and clarity, the query operator on the top of the
-		// stack is also stored in currentOp.
+			char c = qString.charAt(i);
 
-		while (tokens.hasMoreTokens()) {
-
-			token = tokens.nextToken();
-			if (token.matches("[ ,(\t\n\r]")) {
-				// Ignore most delimiters.
-			} else if (token.equalsIgnoreCase("#and")) {
-				currentOp = new QryopSlAnd();
-				stack.push(currentOp);
-			} else if (token.equalsIgnoreCase("#syn")) {
-				currentOp = new QryopIlSyn();
-				stack.push(currentOp);
-			} else if (token.equalsIgnoreCase("#or")) {
-				currentOp = new QryopSlOr();
-				stack.push(currentOp);
-			} else if (token.startsWith("#near") || token.startsWith("#NEAR")) {
-				// instantiate the near operator with the given range
-				String[] temp = token.split("/");
-				if (temp.length < 2) {
-					System.err.println("Wrong near operator usage");
-					return null;
-				}
-				currentOp = new QryopIlNear(Integer.parseInt(temp[1]));
-				stack.push(currentOp);
-			} else if (token.startsWith(")")) { // Finish current query
+			if (c == ')') { // Finish current query operator.
 
-				// operator.
 				// If the current query operator is not an argument to
 				// another query operator (i.e., the stack is empty when it
 				// is removed), we're done (assuming correct syntax - see
@@ -285,43 +535,61 @@ public class QryEval {
 				// processing back to the higher-level operator.
 
 				stack.pop();
+				i++;
 
-				if (stack.empty())
+				if (stack.empty()) {
+					finished = true;
 					break;
+				}
 
 				Qryop arg = currentOp;
 				currentOp = stack.peek();
 				currentOp.add(arg);
-			} else {
+				continue;
+			}
 
-				// NOTE: You should do lexical processing of the token before
-				// creating the query term, and you should check to see whether
-				// the token specifies a particular field (e.g., apple.title).
+			if (isDelimiter(c)) {
+				// Ignore other delimiters.
+				i++;
+				continue;
+			}
 
-				int index = token.lastIndexOf('.');
-				// if the query specifies a filed
-				if (index != -1 && token.substring(index + 1).length() > 0) {
-					String field = token.substring(index + 1);
-					token = token.substring(0, index);
-					currentOp.add(new QryopIlTerm(tokenizeQuery(token)[0],
-							field));
+			int start = i;
+			while (i < length && !isDelimiter(qString.charAt(i)))
+				i++;
+			String token = qString.substring(start, i);
 
-				} else {
-					String[] tokenized = tokenizeQuery(token);
-					/*
-					 * For words such as "in the", ignore them
-					 */
-					if (tokenized.length > 0) {
-						currentOp.add(new QryopIlTerm(tokenizeQuery(token)[0]));
-					}
-				}
+			Qryop op = (c == '#') ? newOperator(token) : null;
+			if (op != null) {
+				currentOp = op;
+				stack.push(currentOp);
+				continue;
+			}
+
+			// A query term, possibly with a field (e.g., apple.title).
+
+			String field = null;
+			int index = token.lastIndexOf('.');
+			if (index != -1 && index + 1 < token.length()) {
+				field = token.substring(index + 1);
+				token = token.substring(0, index);
+			}
+
+			// Stopwords such as "in" and "the" have no terms; ignore them.
+
+			String[] terms = ANALYZER_CACHE.analyze(token);
+			if (terms.length > 0) {
+				if (field != null)
+					currentOp.add(new QryopIlTerm(terms[0], field));
+				else
+					currentOp.add(new QryopIlTerm(terms[0]));
 			}
 		}
 
 		// A broken structured query can leave unprocessed tokens on the
 		// stack, so check for that.
 
-		if (tokens.hasMoreTokens()) {
+		if (finished && i < length) {
 			System.err
 					.println("Error:  Query syntax is incorrect.  " + qString);
 			return null;
@@ -330,6 +598,45 @@ public class QryEval {
 		return currentOp;
 	}
 
+	private static boolean isDelimiter(char c) {
+		return c == ' ' || c == ',' || c == '(' || c == ')' || c == '\t'
+				|| c == '\n' || c == '\r';
+	}
+
+	/**
+	 * Create the query operator that a token names.
+	 * 
+	 * @param token
+	 *            A token that starts with '#'.
+	 * @return The operator, or null if the token is not an operator name.
+	 */
+	private static Qryop newOperator(String token) {
+
+		if (token.equalsIgnoreCase("#and"))
+			return new QryopSlAnd();
+		if (token.equalsIgnoreCase("#syn"))
+			return new QryopIlSyn();
+		if (token.equalsIgnoreCase("#or"))
+			return new QryopSlOr();
+
+		if (token.regionMatches(true, 0, "#near", 0, 5)) {
+			// instantiate the near operator with the given range
+			String[] temp = token.split("/");
+			if (temp.length < 2)
+				fatalError("Wrong near operator usage: " + token);
+			return new QryopIlNear(Integer.parseInt(temp[1]));
+		}
+
+		if (token.regionMatches(true, 0, "#window", 0, 7)) {
+			String[] temp = token.split("/");
+			if (temp.length < 2)
+				fatalError("Wrong window operator usage: " + token);
+			return new QryopIlWindow(Integer.parseInt(temp[1]));
+		}
+
+		return null;
+	}
+
 	/**
 	 * This method takes in a query, evaluate the query result and output an
 	 * entry conforming to trec_eval format
@@ -339,6 +646,24 @@ public class QryEval {
 	 * @return
 	 */
 	public static List<String> outputEntry(String query, RetrievalModel r) {
+		return outputEntry(query, prepareEntry(query), r);
+	}
+
+	/**
+	 * Evaluate a query that has already been prepared, and output its
+	 * entries in trec_eval format.
+	 * 
+	 * @param query
+	 *            A line of the query file, "id:query".
+	 * @param prepared
+	 *            The query from {@link #prepareEntry(String)}.
+	 * @param r
+	 *            The retrieval model.
+	 * @return The entries.
+	 */
+	static List<String> outputEntry(String query, PreparedQuery prepared,
+			RetrievalModel r) {
+		long queryStart = System.nanoTime() - prepared.nanos;
 		List<String> entries = new ArrayList<String>();
 
 		/*
@@ -347,12 +672,64 @@ public class QryEval {
 		String[] s = query.split(":");
 		try {
 			// evaluate the query
-			QryResult result = parseQuery(s[1]).evaluate(r);
+			if (prepared.error != null)
+				throw prepared.error;
+			Qryop q = prepared.tree;
+
+			if (printPlan && optimizeQueries)
+				System.out.print(s[0] + ":\n"
+						+ new QueryOptimizer().explain(q));
+
 			/*
-			 * Build a max heap for retrieving the 100 largest entries
+			 * Equivalent queries that were evaluated recently share their
+			 * result.
 			 */
+			String key = null;
+			ScoreList list = null;
+			if (RESULT_CACHE != null) {
+				key = ResultCache.key(q, r);
+				list = RESULT_CACHE.get(key);
+			}
 
-			List<ScoreList.ScoreListEntry> list = retrieveLargestMinHeap(result.docScores.scores);
+			/*
+			 * Build a min heap for retrieving the 100 largest entries. In
+			 * document-at-a-time mode the heap consumes the query's score
+			 * cursor directly, so no score list is materialized. Each segment
+			 * has its own heap when queries are split by segment.
+			 */
+			if (list == null) {
+				if (profileQueries)
+					OperatorProfile.attach(q);
+				long start = System.nanoTime();
+
+				if (SegmentEvaluator.isEnabled()) {
+					list = SegmentEvaluator.evaluate(q, r, documentAtATime,
+							NUM_DOCS);
+				} else if (documentAtATime && q instanceof QryopSl) {
+					list = retrieveLargestMinHeap(OperatorProfile.scoreCursor(
+							(QryopSl) q, r));
+				} else {
+					QryResult result = OperatorProfile.evaluate(q, r);
+					list = retrieveLargestMinHeap(result.docScores);
+				}
+				if (RESULT_CACHE != null)
+					RESULT_CACHE.put(key, list);
+
+				/*
+				 * The time that is not spent in the query tree is spent
+				 * selecting the top documents.
+				 */
+				if (profileQueries) {
+					long nanos = System.nanoTime() - start;
+					long treeNanos = q.profile.totals()[0];
+					System.out.print(String.format(
+							"%s: total %.3f ms, top-k %.3f ms%n", s[0],
+							nanos / 1e6, Math.max(0, nanos - treeNanos) / 1e6)
+							+ OperatorProfile.format(q));
+				}
+			} else if (profileQueries) {
+				System.out.println(s[0] + ": answered by the result cache");
+			}
 
 			/*
 			 * Format the output string for regular outputs as well as for query
@@ -379,11 +756,11 @@ public class QryEval {
 				entry.append(' ');
 				entry.append("Q0");
 				entry.append(' ');
-				entry.append(getExternalDocid(list.get(i).docid));
+				entry.append(getExternalDocid(list.getDocid(i)));
 				entry.append(' ');
 				entry.append(String.valueOf(i + 1));
 				entry.append(' ');
-				entry.append(list.get(i).score);
+				entry.append(list.getDocidScore(i));
 				entry.append(' ');
 				entry.append("Run_1");
 
@@ -392,9 +769,13 @@ public class QryEval {
 			}
 
 		} catch (IOException e) {
+			Metrics.QUERY_ERRORS.increment();
 			e.printStackTrace();
 		}
 
+		Metrics.QUERIES.increment();
+		Metrics.OUTPUT_ROWS.add(entries.size());
+		Metrics.QUERY_LATENCY.record(System.nanoTime() - queryStart);
 		return entries;
 
 	}
@@ -423,29 +804,34 @@ public class QryEval {
 	}
 
 	/**
-	 * An approach for retrieving the largest k elements with a max heap
+	 * An approach for retrieving the largest k elements with a max heap. The
+	 * heap is kept in parallel docid and score arrays, so no objects are
+	 * allocated per document.
 	 * 
 	 * @param input
-	 * @return
+	 * @return the largest NUM_DOCS entries, best first
 	 */
-	public static List<ScoreList.ScoreListEntry> retrieveLargestMaxHeap(
-			List<ScoreList.ScoreListEntry> input) {
-
-		PriorityQueue<ScoreList.ScoreListEntry> heap = new PriorityQueue<ScoreList.ScoreListEntry>(
-				input.size(), new Comparator<ScoreList.ScoreListEntry>() {
-
-					@Override
-					public int compare(ScoreList.ScoreListEntry o1,
-							ScoreList.ScoreListEntry o2) {
-						return compareScoreList(o1, o2);
-					}
-
-				});
-		List<ScoreList.ScoreListEntry> list = new ArrayList<ScoreList.ScoreListEntry>(
-				NUM_DOCS);
-		heap.addAll(input);
+	public static ScoreList retrieveLargestMaxHeap(ScoreList input) {
+
+		/*
+		 * Heapify every entry so that the best entry is on top
+		 */
+		int size = input.size();
+		int[] docids = new int[size];
+		double[] scores = new double[size];
+		for (int i = 0; i < size; i++) {
+			docids[i] = input.getDocid(i);
+			scores[i] = input.getDocidScore(i);
+		}
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			siftDown(docids, scores, size, i, docids[i], scores[i]);
+		}
+
+		ScoreList list = new ScoreList();
 		for (int i = 0; i < Math.min(input.size(), NUM_DOCS); i++) {
-			list.add(heap.poll());
+			list.add(docids[0], scores[0]);
+			size--;
+			siftDown(docids, scores, size, 0, docids[size], scores[size]);
 		}
 
 		return list;
@@ -455,52 +841,54 @@ public class QryEval {
 	 * An approach for retrieving the largest k elements with a min heap
 	 * 
 	 * @param input
-	 * @return
+	 * @return the largest NUM_DOCS entries, best first
+	 * @throws IOException
 	 */
-	public static List<ScoreList.ScoreListEntry> retrieveLargestMinHeap(
-			List<ScoreList.ScoreListEntry> input) {
+	public static ScoreList retrieveLargestMinHeap(ScoreList input)
+			throws IOException {
+		return retrieveLargestMinHeap(input.cursor());
+	}
 
-		/*
-		 * Create the min heap
-		 */
-		PriorityQueue<ScoreList.ScoreListEntry> heap = new PriorityQueue<ScoreList.ScoreListEntry>(
-				NUM_DOCS, new Comparator<ScoreList.ScoreListEntry>() {
+	/**
+	 * An approach for retrieving the largest k elements with a min heap. The
+	 * input is read one document at a time into a bounded
+	 * {@link TopKCollector}, which breaks ties by external id ordinal, so
+	 * stored fields are only read for the final results.
+	 * 
+	 * @param input
+	 * @return the largest NUM_DOCS entries, best first
+	 * @throws IOException
+	 */
+	public static ScoreList retrieveLargestMinHeap(ScoreCursor input)
+			throws IOException {
 
-					@Override
-					public int compare(ScoreList.ScoreListEntry o1,
-							ScoreList.ScoreListEntry o2) {
-						return compareScoreList(o2, o1);
-					}
+		TopKCollector collector = new TopKCollector(NUM_DOCS,
+				EXTERNAL_ID_ORDINALS);
+		collector.collect(input);
+		return collector.topDocs();
 
-				});
-		// create a list for storing the final result
-		List<ScoreList.ScoreListEntry> result = new ArrayList<ScoreList.ScoreListEntry>();
+	}
 
-		/*
-		 * For each element, if it's larger than the largest than the smallest
-		 * element in the heap, add it to the min heap
-		 */
-		for (ScoreList.ScoreListEntry entry : input) {
-			if (heap.size() < NUM_DOCS) {
-				heap.add(entry);
-			} else {
-				if (compareScoreList(entry, heap.peek()) < 0) {
-					heap.poll();
-					heap.add(entry);
-				}
-			}
-		}
-		/*
-		 * Add the largest NUM_DOCS elements to the list
-		 */
-		while (heap.size() > 0) {
-			result.add(heap.poll());
+	/**
+	 * Put an entry at index i of a max heap (best entry on top) and move it
+	 * down to its place.
+	 */
+	private static void siftDown(int[] docids, double[] scores, int size,
+			int i, int docid, double score) {
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size
+					&& compareScoreList(docids[child + 1], scores[child + 1],
+							docids[child], scores[child]) < 0)
+				child++;
+			if (compareScoreList(docids[child], scores[child], docid, score) >= 0)
+				break;
+			docids[i] = docids[child];
+			scores[i] = scores[child];
+			i = child;
 		}
-
-		Collections.reverse(result);
-		
-		return result;
-
+		docids[i] = docid;
+		scores[i] = score;
 	}
 
 	/**
@@ -521,10 +909,10 @@ public class QryEval {
 			throws IOException {
 
 		System.out.println(queryName + ":  ");
-		if (result.docScores.scores.size() < 1) {
+		if (result.docScores.size() < 1) {
 			System.out.println("\tNo results.");
 		} else {
-			for (int i = 0; i < result.docScores.scores.size(); i++) {
+			for (int i = 0; i < result.docScores.size(); i++) {
 				System.out.println("\t" + i + ":  "
 						+ getExternalDocid(result.docScores.getDocid(i)) + ", "
 						+ result.docScores.getDocidScore(i));
@@ -545,9 +933,11 @@ public class QryEval {
 	 */
 	static String[] tokenizeQuery(String query) throws IOException {
 
-		TokenStreamComponents comp = analyzer.createComponents("dummy",
+		// Analyzer.tokenStream reuses one token stream per thread, so this is
+		// safe when several queries are parsed at once.
+
+		TokenStream tokenStream = analyzer.tokenStream("dummy",
 				new StringReader(query));
-		TokenStream tokenStream = comp.getTokenStream();
 
 		CharTermAttribute charTermAttribute = tokenStream
 				.addAttribute(CharTermAttribute.class);
@@ -558,30 +948,31 @@ public class QryEval {
 			String term = charTermAttribute.toString();
 			tokens.add(term);
 		}
+		tokenStream.end();
+		tokenStream.close();
 		return tokens.toArray(new String[tokens.size()]);
 	}
 
 	/**
-	 * A helper method for comparing two score list entry for retrieving the
-	 * largest k ones
+	 * A helper method for comparing two score list entries for retrieving the
+	 * largest k ones. Entries with higher scores come first; ties are broken
+	 * by external id, using the precomputed external id ordinals.
 	 * 
-	 * @param arg0
-	 * @param arg1
-	 * @return
+	 * @param docid0
+	 * @param score0
+	 * @param docid1
+	 * @param score1
+	 * @return negative if the first entry ranks before the second
 	 */
-	public static int compareScoreList(ScoreList.ScoreListEntry arg0,
-			ScoreList.ScoreListEntry arg1) {
+	public static int compareScoreList(int docid0, double score0, int docid1,
+			double score1) {
 		// if the score is different, sort the entries by score
-		if (arg0.score - arg1.score != 0) {
-			return (int) (arg1.score - arg0.score);
+		if (score0 != score1) {
+			return Double.compare(score1, score0);
 		} else {
 			// sort the entry by external id when score ties
-			try {
-				return getExternalDocid(arg0.docid).compareTo(
-						getExternalDocid(arg1.docid));
-			} catch (IOException e) {
-				return 0;
-			}
+			return Integer.compare(EXTERNAL_ID_ORDINALS.get(docid0),
+					EXTERNAL_ID_ORDINALS.get(docid1));
 		}
 	}
 
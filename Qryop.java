@@ -22,11 +22,21 @@ public abstract class Qryop {
 		protected int nextDoc; // The next document to examine
 	};
 
-	// Initially the query operator starts with no arguments and no
-	// ArgPtrs.
+	// Initially the query operator starts with no arguments. ArgPtrs are
+	// created for each evaluation and are not stored in the operator, so
+	// the same query tree can be evaluated by several threads at once.
 
 	protected ArrayList<Qryop> args = new ArrayList<Qryop>();
-	protected List<ArgPtr> argPtrs = new ArrayList<ArgPtr>();
+
+	// Where the operator records its work when the query is profiled, or
+	// null.
+
+	protected OperatorProfile profile;
+
+	// The estimated cost of evaluating the operator, in postings read, or -1
+	// if it has not been estimated. Set by QueryOptimizer.estimateCost().
+
+	protected long cost = -1;
 
 	/**
 	 * Appends an argument to the list of query operator arguments. This
@@ -47,7 +57,8 @@ public abstract class Qryop {
 	 * @return The argPtrs.
 	 * @throws IOException
 	 */
-	public abstract void allocArgPtrs(RetrievalModel r) throws IOException;
+	public abstract List<ArgPtr> allocArgPtrs(RetrievalModel r)
+			throws IOException;
 
 	/**
 	 * Evaluates the query operator, including any child operators and returns
@@ -60,15 +71,6 @@ public abstract class Qryop {
 	 */
 	public abstract QryResult evaluate(RetrievalModel r) throws IOException;
 
-	/**
-	 * Free this operator's ArgPtrs.
-	 * 
-	 * @return void
-	 */
-	public void freeArgPtrs() {
-		this.argPtrs = new ArrayList<ArgPtr>();
-	}
-
 	/**
 	 * Removes an argument from the list of query operator arguments. This
 	 * simplifies the design of some query parsing architectures.
@@ -88,4 +90,38 @@ public abstract class Qryop {
 	 */
 	public abstract String toString();
 
+	/**
+	 * Return a canonical string version of this query operator. Query trees
+	 * that have the same canonical string return the same results under
+	 * every retrieval model, so the canonical string identifies the query in
+	 * the result cache. It differs from toString() in that the arguments of
+	 * operators that do not depend on argument order are sorted.
+	 * 
+	 * @return The canonical string version of this query operator.
+	 */
+	public abstract String toCanonicalString();
+
+	/**
+	 * Return the canonical strings of the arguments, each followed by a
+	 * space.
+	 * 
+	 * @param sort
+	 *            If true, the arguments are sorted by canonical string.
+	 * @return The canonical strings of the arguments.
+	 */
+	protected String canonicalArgs(boolean sort) {
+
+		String[] strings = new String[this.args.size()];
+		for (int i = 0; i < strings.length; i++)
+			strings[i] = this.args.get(i).toCanonicalString();
+
+		if (sort)
+			Arrays.sort(strings);
+
+		StringBuilder result = new StringBuilder();
+		for (String s : strings)
+			result.append(s).append(' ');
+		return result.toString();
+	}
+
 }
@@ -10,6 +10,7 @@
  */
 
 import java.io.*;
+import java.util.*;
 
 public abstract class QryopIl extends Qryop {
 
@@ -17,19 +18,126 @@ public abstract class QryopIl extends Qryop {
    *  Use the specified retrieval model to evaluate the query arguments.
    *  Define and return ArgPtrs pointers that the query operator can use.
    *  @param r A retrieval model that controls how the operator behaves.
-   *  @return void
+   *  @return The argPtrs.
    *  @throws IOException
    */
-  public void allocArgPtrs (RetrievalModel r) throws IOException {
+  public List<ArgPtr> allocArgPtrs (RetrievalModel r) throws IOException {
+
+    List<ArgPtr> argPtrs = new ArrayList<ArgPtr> ();
+    QryResult[] results = ForkJoinEvaluator.evaluate (this.args, r);
 
     for (int i=0; i<this.args.size(); i++) {
       ArgPtr ptri = new ArgPtr ();
-      ptri.invList = this.args.get(i).evaluate(r).invertedList;
+      ptri.invList = results[i].invertedList;
       ptri.scoreList = null;
       ptri.nextDoc = 0;
 	
-      this.argPtrs.add (ptri);
+      argPtrs.add (ptri);
     }
+
+    return argPtrs;
+  }
+
+  /**
+   *  Return the result of this query operator as a cursor, so that the
+   *  consuming operator can read postings one at a time instead of
+   *  materializing the whole inverted list.  If the same subtree occurs
+   *  more than once among the queries being evaluated and its inverted
+   *  list has already been computed, the cursor reads the shared list.
+   *  The list is not computed for sharing here, since the consumer may
+   *  skip most of it.  When the query is profiled, the cursor records its
+   *  work in the operator's profile.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return A new cursor, positioned before the first posting.
+   *  @throws IOException
+   */
+  public PostingsCursor cursor (RetrievalModel r) throws IOException {
+    return this.cursor (r, false);
+  }
+
+  /**
+   *  Return the result of this query operator as a cursor.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param whole True if the consumer reads every posting, in which
+   *    case a subtree that occurs more than once may be computed and
+   *    shared, as by invertedList.
+   *  @return A new cursor, positioned before the first posting.
+   *  @throws IOException
+   */
+  public PostingsCursor cursor (RetrievalModel r, boolean whole)
+    throws IOException {
+    if (this.profile == null)
+      return this.sharedOrOpenCursor (r, whole);
+
+    long start = System.nanoTime ();
+    long allocated = OperatorProfile.allocatedBytes ();
+    PostingsCursor cursor = this.sharedOrOpenCursor (r, whole);
+    this.profile.record (System.nanoTime () - start,
+                         OperatorProfile.allocatedBytes () - allocated, 0);
+    return new PostingsCursorProfiled (cursor, this.profile);
+  }
+
+  private PostingsCursor sharedOrOpenCursor (RetrievalModel r, boolean whole)
+    throws IOException {
+    if (QryEval.SHARED_SUBTREES != null) {
+      PostingsCursor shared = QryEval.SHARED_SUBTREES.get (this, r, whole);
+      if (shared != null)
+        return shared;
+    }
+    return this.openCursor (r);
+  }
+
+  /**
+   *  Return this operator's inverted list.  If the same subtree occurs
+   *  more than once among the queries being evaluated, it is computed
+   *  once and the other occurrences copy the shared list.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The inverted list.
+   *  @throws IOException
+   */
+  protected InvList invertedList (RetrievalModel r) throws IOException {
+    return new InvList (this.cursor (r, true));
+  }
+
+  /**
+   *  Compute the result of this query operator as a cursor, ignoring
+   *  shared subtrees.  By default the operator is evaluated and its
+   *  inverted list is wrapped in a cursor; operators that can produce
+   *  postings lazily override this.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return A new cursor, positioned before the first posting.
+   *  @throws IOException
+   */
+  protected PostingsCursor openCursor (RetrievalModel r) throws IOException {
+    return this.evaluate(r).invertedList.cursor();
+  }
+
+  /**
+   *  Open a cursor for each query argument.  Every argument must return
+   *  an inverted list, and all of them must be in the same field.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The argument cursors, in argument order.
+   *  @throws IOException
+   */
+  protected List<PostingsCursor> argCursors (RetrievalModel r) throws IOException {
+
+    List<PostingsCursor> cursors = new ArrayList<PostingsCursor> ();
+
+    for (int i=0; i<this.args.size(); i++) {
+
+      if (!(this.args.get(i) instanceof QryopIl))
+        QryEval.fatalError ("Error:  Invalid argument in " + this.toString());
+
+      PostingsCursor c = ((QryopIl) this.args.get(i)).cursor(r);
+
+      if ((i > 0) && (!c.getField().equals(cursors.get(0).getField())))
+        QryEval.fatalError ("Error:  Arguments must be in the same field:  " +
+                            this.toString());
+
+      cursors.add (c);
+    }
+
+    return cursors;
   }
 
 }
@@ -1,7 +1,5 @@
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 
 public class QryopIlNear extends QryopIl {
 
@@ -21,86 +19,23 @@ public class QryopIlNear extends QryopIl {
 
 	@Override
 	public QryResult evaluate(RetrievalModel r) throws IOException {
-		this.allocArgPtrs(r);
-		this.syntaxCheckArgResults(argPtrs);
-
 		QryResult result = new QryResult();
-
-		ArgPtr first = argPtrs.get(0);
-
-		/*
-		 * Find the terms with the same doc id using the same algorithm as the
-		 * provided approach for "#and".
-		 */
-		out: for (; first.nextDoc < first.invList.postings.size(); first.nextDoc++) {
-			int docId = first.invList.getDocid(first.nextDoc);
-			for (int j = 1; j < argPtrs.size(); j++) {
-				ArgPtr ptrj = argPtrs.get(j);
-				while (true) {
-					// no more docs, no more match
-					if (ptrj.nextDoc >= ptrj.invList.postings.size()) {
-						break out;
-					}
-					// the first doc does not match
-					else if (ptrj.invList.getDocid(ptrj.nextDoc) > docId) {
-						continue out;
-					}
-					// does not match, look at next
-					else if (ptrj.invList.getDocid(ptrj.nextDoc) < docId)
-						ptrj.nextDoc++;
-					else {
-						break;
-					}
-				}
-			}
-			List<Integer> locations = new ArrayList<Integer>();
-			// all doc ids matched, look for #NEAR match
-
-			/*
-			 * Evaluate "near" operator based on the greedy algorithm approach
-			 */
-			nearEvaluate: for (int firstPosition : first.invList.postings
-					.get(first.nextDoc).positions) {
-				int last = firstPosition;
-				for (int j = 1; j < argPtrs.size(); j++) {
-					InvList.DocPosting posting = argPtrs.get(j).invList.postings
-							.get(argPtrs.get(j).nextDoc);
-					while (true) {
-						/*
-						 * end outer loop, if no more available positions for
-						 * evaluation
-						 */
-						if (posting.position >= posting.positions.size()) {
-							break nearEvaluate;
-						}
-						/*
-						 * position < last position, get to evaluate next
-						 */
-						if (posting.positions.get(posting.position) < last) {
-							posting.position++;
-						} else if (posting.positions.get(posting.position)
-								- last > gap) {
-							continue nearEvaluate;
-						} else {
-							// a match between two adjacent words
-							last = posting.positions.get(posting.position);
-							break;
-						}
-					}
-				}
-				/*
-				 * A near operator is successfully matched
-				 */
-				locations.add(last);
-			}
-			if (locations.size() > 0) {
-				result.invertedList.appendPosting(docId, locations);
-			}
-		}
-		freeArgPtrs();
-		result.invertedList.field = first.invList.field;
+		result.invertedList = invertedList(r);
 		return result;
+	}
 
+	/**
+	 * Return a cursor over the documents and positions that match the near
+	 * operator. The arguments are read lazily, one posting at a time.
+	 * 
+	 * @param r
+	 *            retrieval model
+	 * @return a new cursor, positioned before the first posting
+	 * @throws IOException
+	 */
+	@Override
+	protected PostingsCursor openCursor(RetrievalModel r) throws IOException {
+		return new PostingsCursorNear(gap, argCursors(r));
 	}
 
 	@Override
@@ -110,32 +45,12 @@ public class QryopIlNear extends QryopIl {
 		for (Iterator<Qryop> i = this.args.iterator(); i.hasNext();)
 			result += (i.next().toString() + " ");
 
-		return ("#NEAR( " + result + ")");
+		return ("#NEAR/" + this.gap + "( " + result + ")");
 	}
 
-	/**
-	 * syntaxCheckArgResults does syntax checking that can only be done after
-	 * query arguments are evaluated.
-	 * 
-	 * @param ptrs
-	 *            A list of ArgPtrs for this query operator.
-	 * @return True if the syntax is valid, false otherwise.
-	 */
-	public Boolean syntaxCheckArgResults(List<ArgPtr> ptrs) {
-		for (int i = 0; i < this.args.size(); i++) {
-
-			if (!(this.args.get(i) instanceof QryopIl))
-				QryEval.fatalError("Error:  Invalid argument in "
-						+ this.toString());
-			else if ((i > 0)
-					&& (!ptrs.get(i).invList.field
-							.equals(ptrs.get(0).invList.field))) {
-				QryEval.fatalError("Error:  Arguments must be in the same field:  "
-						+ this.toString());
-			}
-		}
-
-		return true;
+	@Override
+	public String toCanonicalString() {
+		return ("#NEAR/" + this.gap + "( " + canonicalArgs(false) + ")");
 	}
 
 }
@@ -45,108 +45,22 @@ public class QryopIlSyn extends QryopIl {
 	 */
 	public QryResult evaluate(RetrievalModel r) throws IOException {
 
-		// Initialization
-
-		allocArgPtrs(r);
-		syntaxCheckArgResults(this.argPtrs);
-
 		QryResult result = new QryResult();
-		result.invertedList.field = new String(
-				this.argPtrs.get(0).invList.field);
-
-		// Each pass of the loop adds 1 document to result until all of
-		// the inverted lists are depleted. When a list is depleted, it
-		// is removed from argPtrs, so this loop runs until argPtrs is empty.
-
-		// This implementation is intended to be clear. A more efficient
-		// implementation would combine loops and use merge-sort.
-
-		while (this.argPtrs.size() > 0) {
-
-			int nextDocid = getSmallestCurrentDocid();
-
-			// Create a new posting that is the union of the posting lists
-			// that match the nextDocid.
-
-			List<Integer> positions = new ArrayList<Integer>();
-
-			for (int i = 0; i < this.argPtrs.size(); i++) {
-				ArgPtr ptri = this.argPtrs.get(i);
-
-				/*
-				 * There might be inverted list where there is no match at all
-				 */
-				if (ptri.nextDoc < ptri.invList.postings.size()
-						&& ptri.invList.getDocid(ptri.nextDoc) == nextDocid) {
-					positions
-							.addAll(ptri.invList.postings.get(ptri.nextDoc).positions);
-					ptri.nextDoc++;
-				}
-			}
-
-			Collections.sort(positions);
-			result.invertedList.appendPosting(nextDocid, positions);
-
-			// If an ArgPtr has reached the end of its list, remove it.
-			// The loop is backwards so that removing an arg does not
-			// interfere with iteration.
-
-			for (int i = this.argPtrs.size() - 1; i >= 0; i--) {
-				ArgPtr ptri = this.argPtrs.get(i);
-
-				if (ptri.nextDoc >= ptri.invList.postings.size()) {
-					this.argPtrs.remove(i);
-				}
-			}
-		}
-
-		freeArgPtrs();
-
+		result.invertedList = invertedList(r);
 		return result;
 	}
 
 	/**
-	 * Return the smallest unexamined docid from the ArgPtrs.
+	 * Return a cursor over the union of the arguments' inverted lists. The
+	 * arguments are read lazily, one posting at a time.
 	 * 
-	 * @return The smallest internal document id.
-	 */
-	public int getSmallestCurrentDocid() {
-
-		int nextDocid = Integer.MAX_VALUE;
-
-		for (int i = 0; i < this.argPtrs.size(); i++) {
-			ArgPtr ptri = this.argPtrs.get(i);
-			if (ptri.nextDoc < ptri.invList.postings.size()
-					&& nextDocid > ptri.invList.getDocid(ptri.nextDoc))
-				nextDocid = ptri.invList.getDocid(ptri.nextDoc);
-		}
-
-		return (nextDocid);
-	}
-
-	/**
-	 * syntaxCheckArgResults does syntax checking that can only be done after
-	 * query arguments are evaluated.
-	 * 
-	 * @param ptrs
-	 *            A list of ArgPtrs for this query operator.
-	 * @return True if the syntax is valid, false otherwise.
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return A new cursor, positioned before the first posting.
+	 * @throws IOException
 	 */
-	public Boolean syntaxCheckArgResults(List<ArgPtr> ptrs) {
-
-		for (int i = 0; i < this.args.size(); i++) {
-
-			if (!(this.args.get(i) instanceof QryopIl))
-				QryEval.fatalError("Error:  Invalid argument in "
-						+ this.toString());
-			else if ((i > 0)
-					&& (!ptrs.get(i).invList.field
-							.equals(ptrs.get(0).invList.field)))
-				QryEval.fatalError("Error:  Arguments must be in the same field:  "
-						+ this.toString());
-		}
-
-		return true;
+	protected PostingsCursor openCursor(RetrievalModel r) throws IOException {
+		return new PostingsCursorSyn(argCursors(r));
 	}
 
 	/*
@@ -163,4 +77,13 @@ public class QryopIlSyn extends QryopIl {
 
 		return ("#SYN( " + result + ")");
 	}
+
+	/**
+	 * The arguments of SYN are merged, so their order does not matter.
+	 * 
+	 * @return The canonical string version of this query operator.
+	 */
+	public String toCanonicalString() {
+		return ("#SYN( " + canonicalArgs(true) + ")");
+	}
 }
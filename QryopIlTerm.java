@@ -10,6 +10,8 @@
 
 import java.io.*;
 
+import org.apache.lucene.index.AtomicReaderContext;
+
 public class QryopIlTerm extends QryopIl {
 
 	private String term;
@@ -41,6 +43,20 @@ public class QryopIlTerm extends QryopIl {
 		this.field = f;
 	}
 
+	/**
+	 * @return The term string.
+	 */
+	public String getTerm() {
+		return this.term;
+	}
+
+	/**
+	 * @return The field that the term matches in.
+	 */
+	public String getField() {
+		return this.field;
+	}
+
 	/*
 	 * Every Qryop is required to have an add method that appends query
 	 * arguments, but that doesn't make sense for the Term query operator. So,
@@ -63,10 +79,35 @@ public class QryopIlTerm extends QryopIl {
 	 */
 	public QryResult evaluate(RetrievalModel r) throws IOException {
 		QryResult result = new QryResult();
-		result.invertedList = new InvList(this.term, this.field);
+		result.invertedList = new InvList(cursor(r));
 		return result;
 	}
 
+	/**
+	 * Return a cursor over the term's postings. If the query is being
+	 * evaluated one segment at a time, the cursor reads only the postings of
+	 * the current segment from the index. Otherwise the postings are read
+	 * from the postings snapshot if there is one, then through the postings
+	 * cache if it is enabled, which streams the lists that it does not keep;
+	 * failing both, the cursor reads them directly from the index, without
+	 * copying them.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return A new cursor, positioned before the first posting.
+	 * @throws IOException
+	 */
+	protected PostingsCursor openCursor(RetrievalModel r) throws IOException {
+		AtomicReaderContext segment = SegmentEvaluator.current();
+		if (segment != null)
+			return new PostingsCursorLucene(this.term, this.field, segment);
+		if (QryEval.SNAPSHOT != null)
+			return QryEval.SNAPSHOT.get(this.term, this.field).cursor();
+		if (QryEval.POSTINGS_CACHE != null)
+			return QryEval.POSTINGS_CACHE.cursor(this.term, this.field);
+		return new PostingsCursorLucene(this.term, this.field);
+	}
+
 	/*
 	 * Return a string version of this query operator.
 	 * 
@@ -75,4 +116,8 @@ public class QryopIlTerm extends QryopIl {
 	public String toString() {
 		return (this.term + "." + this.field);
 	}
+
+	public String toCanonicalString() {
+		return toString();
+	}
 }
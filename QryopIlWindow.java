@@ -0,0 +1,64 @@
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * The WINDOW/n operator: the arguments occur in any order within a window of
+ * n positions.
+ *
+ */
+public class QryopIlWindow extends QryopIl {
+
+	private int size;
+
+	public QryopIlWindow(int size, Qryop... qryops) {
+		for (Qryop q : qryops) {
+			this.args.add(q);
+		}
+		this.size = size;
+	}
+
+	@Override
+	public void add(Qryop q) throws IOException {
+		this.args.add(q);
+	}
+
+	@Override
+	public QryResult evaluate(RetrievalModel r) throws IOException {
+		QryResult result = new QryResult();
+		result.invertedList = invertedList(r);
+		return result;
+	}
+
+	/**
+	 * Return a cursor over the documents and positions that match the
+	 * window operator.
+	 *
+	 * @param r
+	 *            retrieval model
+	 * @return a new cursor, positioned before the first posting
+	 * @throws IOException
+	 */
+	@Override
+	protected PostingsCursor openCursor(RetrievalModel r) throws IOException {
+		return new PostingsCursorWindow(size, argCursors(r));
+	}
+
+	@Override
+	public String toString() {
+		String result = new String();
+
+		for (Iterator<Qryop> i = this.args.iterator(); i.hasNext();)
+			result += (i.next().toString() + " ");
+
+		return ("#WINDOW/" + this.size + "( " + result + ")");
+	}
+
+	/**
+	 * The order of the arguments does not matter, so they are sorted.
+	 */
+	@Override
+	public String toCanonicalString() {
+		return ("#WINDOW/" + this.size + "( " + canonicalArgs(true) + ")");
+	}
+
+}
@@ -10,6 +10,7 @@
  */
 
 import java.io.*;
+import java.util.*;
 
 public abstract class QryopSl extends Qryop {
 
@@ -19,26 +20,85 @@ public abstract class QryopSl extends Qryop {
 	 * 
 	 * @param r
 	 *            A retrieval model that controls how the operator behaves.
-	 * @return void
+	 * @return The argPtrs.
 	 * @throws IOException
 	 */
-	public void allocArgPtrs(RetrievalModel r) throws IOException {
+	public List<ArgPtr> allocArgPtrs(RetrievalModel r) throws IOException {
 
-		for (int i = 0; i < this.args.size(); i++) {
+		List<ArgPtr> argPtrs = new ArrayList<ArgPtr>();
+		List<QryopSl> scoredArgs = new ArrayList<QryopSl>();
+
+		for (int i = 0; i < this.args.size(); i++)
+			scoredArgs.add(scoredArg(i));
 
-			// If this argument doesn't return ScoreLists, wrap it
-			// in a #SCORE operator.
+		QryResult[] results = ForkJoinEvaluator.evaluate(scoredArgs, r);
 
-			if (!QryopSl.class.isInstance(this.args.get(i)))
-				this.args.set(i, new QryopSlScore(this.args.get(i)));
+		for (int i = 0; i < this.args.size(); i++) {
 
 			ArgPtr ptri = new ArgPtr();
 			ptri.invList = null;
-			ptri.scoreList = this.args.get(i).evaluate(r).docScores;
+			ptri.scoreList = results[i].docScores;
 			ptri.nextDoc = 0;
 
-			this.argPtrs.add(ptri);
+			argPtrs.add(ptri);
 		}
+
+		return argPtrs;
+	}
+
+	/**
+	 * Return the i'th query argument as an operator that returns ScoreLists.
+	 * If the argument doesn't return ScoreLists, it is wrapped in a #SCORE
+	 * operator. The wrapper is not stored in the query tree, so evaluation
+	 * does not modify the tree.
+	 * 
+	 * @param i
+	 *            The index of the argument.
+	 * @return The argument, or a #SCORE operator that wraps it.
+	 */
+	protected QryopSl scoredArg(int i) {
+
+		Qryop arg = this.args.get(i);
+
+		if (!(arg instanceof QryopSl))
+			return new QryopSlScore(arg);
+
+		return (QryopSl) arg;
+	}
+
+	/**
+	 * Return the result of this query operator as a cursor, for
+	 * document-at-a-time evaluation. By default the operator is evaluated and
+	 * its score list is wrapped in a cursor; operators that can score
+	 * documents one at a time override this.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return A new cursor, positioned before the first document.
+	 * @throws IOException
+	 */
+	public ScoreCursor scoreCursor(RetrievalModel r) throws IOException {
+		return this.evaluate(r).docScores.cursor();
+	}
+
+	/**
+	 * Open a score cursor for each query argument. As in allocArgPtrs, an
+	 * argument that doesn't return ScoreLists is scored by a #SCORE operator.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return The argument cursors, in argument order.
+	 * @throws IOException
+	 */
+	protected List<ScoreCursor> argScoreCursors(RetrievalModel r)
+			throws IOException {
+
+		List<ScoreCursor> cursors = new ArrayList<ScoreCursor>();
+
+		for (int i = 0; i < this.args.size(); i++)
+			cursors.add(OperatorProfile.scoreCursor(scoredArg(i), r));
+
+		return cursors;
 	}
 
 	/*
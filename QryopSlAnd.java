@@ -9,6 +9,14 @@ import java.util.*;
 
 public class QryopSlAnd extends QryopSl {
 
+	// Intersection strategy thresholds. A list is searched by galloping if
+	// it is at least GALLOP_RATIO times longer than the shortest list.
+	// Bitsets are used if the shortest list holds at least one in
+	// BITSET_DENSITY of the docids that could match.
+
+	private static final int GALLOP_RATIO = 8;
+	private static final int BITSET_DENSITY = 16;
+
 	/**
 	 * It is convenient for the constructor to accept a variable number of
 	 * arguments. Thus new qryopAnd (arg1, arg2, arg3, ...).
@@ -64,64 +72,82 @@ public class QryopSlAnd extends QryopSl {
 
 		// Initialization
 
-		allocArgPtrs(r);
+		List<ArgPtr> argPtrs = allocArgPtrs(r);
 		QryResult result = new QryResult();
 
 		// Sort the arguments so that the shortest lists are first. This
 		// improves the efficiency of exact-match AND without changing
 		// the result.
 
-		// for (int i = 0; i < (this.argPtrs.size() - 1); i++) {
-		// for (int j = i + 1; j < this.argPtrs.size(); j++) {
-		// if (this.argPtrs.get(i).scoreList.scores.size() > this.argPtrs
-		// .get(j).scoreList.scores.size()) {
-		// ScoreList tmpScoreList = this.argPtrs.get(i).scoreList;
-		// this.argPtrs.get(i).scoreList = this.argPtrs.get(j).scoreList;
-		// this.argPtrs.get(j).scoreList = tmpScoreList;
+		// for (int i = 0; i < (argPtrs.size() - 1); i++) {
+		// for (int j = i + 1; j < argPtrs.size(); j++) {
+		// if (argPtrs.get(i).scoreList.size() > argPtrs
+		// .get(j).scoreList.size()) {
+		// ScoreList tmpScoreList = argPtrs.get(i).scoreList;
+		// argPtrs.get(i).scoreList = argPtrs.get(j).scoreList;
+		// argPtrs.get(j).scoreList = tmpScoreList;
 		// }
 		// }
 		// }
 
 		// replace bubble sort with quick sort
-		Collections.sort(this.argPtrs, new SizeComparator());
+		Collections.sort(argPtrs, new SizeComparator());
 
 		// Exact-match AND requires that ALL scoreLists contain a
 		// document id. Use the first (shortest) list to control the
 		// search for matches.
 
+		ArgPtr ptr0 = argPtrs.get(0);
+
+		// When every list is dense, intersecting bitsets is cheaper than
+		// walking the lists against each other.
+
+		if (argPtrs.size() > 1 && isDense(argPtrs)) {
+			evaluateBitset(r, argPtrs, result);
+			return result;
+		}
+
+		// Lists that are much longer than the shortest one are searched
+		// with galloping advance() instead of being stepped through one
+		// docid at a time, so a rare term ANDed with a common one costs
+		// O(rare * log common) instead of O(common).
+
+		boolean[] gallop = new boolean[argPtrs.size()];
+		for (int j = 1; j < argPtrs.size(); j++)
+			gallop[j] = argPtrs.get(j).scoreList.size() >= GALLOP_RATIO
+					* ptr0.scoreList.size();
+
 		// Named loops are a little ugly. However, they make it easy
 		// to terminate an outer loop from within an inner loop.
 		// Otherwise it is necessary to use flags, which is also ugly.
 
-		ArgPtr ptr0 = this.argPtrs.get(0);
-
-		EVALUATEDOCUMENTS: for (; ptr0.nextDoc < ptr0.scoreList.scores.size(); ptr0.nextDoc++) {
+		EVALUATEDOCUMENTS: for (; ptr0.nextDoc < ptr0.scoreList.size(); ptr0.nextDoc++) {
 
 			int ptr0Docid = ptr0.scoreList.getDocid(ptr0.nextDoc);
 			double docScore = ptr0.scoreList.getDocidScore(ptr0.nextDoc);
 
 			// Do the other query arguments have the ptr0Docid?
 
-			for (int j = 1; j < this.argPtrs.size(); j++) {
+			for (int j = 1; j < argPtrs.size(); j++) {
 
-				ArgPtr ptrj = this.argPtrs.get(j);
+				ArgPtr ptrj = argPtrs.get(j);
 
 				while (true) {
-					if (ptrj.nextDoc >= ptrj.scoreList.scores.size())
+					if (ptrj.nextDoc >= ptrj.scoreList.size())
 						break EVALUATEDOCUMENTS; // No more docs can match
 					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) > ptr0Docid)
 						continue EVALUATEDOCUMENTS; // The ptr0docid can't
 													// match.
-					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) < ptr0Docid)
-						ptrj.nextDoc++; // Not yet at the right doc.
-					else {
-						if (r instanceof RetrievalModelRankedBoolean) {
-							docScore = Math.min(
-									ptrj.scoreList.getDocidScore(ptrj.nextDoc),
-									docScore);
-						} else {
-							docScore = 1.0;
-						}
+					else if (ptrj.scoreList.getDocid(ptrj.nextDoc) < ptr0Docid) {
+						// Not yet at the right doc.
+						if (gallop[j])
+							ptrj.nextDoc = ptrj.scoreList.advance(ptrj.nextDoc,
+									ptr0Docid);
+						else
+							ptrj.nextDoc++;
+					} else {
+						docScore = combineScore(r, docScore,
+								ptrj.scoreList.getDocidScore(ptrj.nextDoc));
 						break; // ptrj matches ptr0Docid
 					}
 				}
@@ -132,11 +158,142 @@ public class QryopSlAnd extends QryopSl {
 			result.docScores.add(ptr0Docid, docScore);
 		}
 
-		freeArgPtrs();
-
 		return result;
 	}
 
+	/**
+	 * Return a cursor that intersects the arguments' cursors one document at
+	 * a time.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return A new cursor, positioned before the first document.
+	 * @throws IOException
+	 */
+	public ScoreCursor scoreCursor(RetrievalModel r) throws IOException {
+		return new ScoreCursorAnd(argScoreCursors(r), r);
+	}
+
+	/**
+	 * Decide whether the (sorted) argument lists are dense enough for bitset
+	 * intersection. Matches can only occur up to the smallest last docid, and
+	 * the lists are dense if even the shortest one covers at least one in
+	 * BITSET_DENSITY of those docids.
+	 * 
+	 * @param argPtrs
+	 *            The argument lists, shortest first.
+	 * @return true if bitset intersection should be used.
+	 */
+	private boolean isDense(List<ArgPtr> argPtrs) {
+
+		int universe = universe(argPtrs);
+		return universe > 0
+				&& (long) argPtrs.get(0).scoreList.size() * BITSET_DENSITY >= universe;
+	}
+
+	/**
+	 * @param argPtrs
+	 *            The argument lists.
+	 * @return One more than the smallest last docid of the argument lists,
+	 *         or 0 if a list is empty. No document at or above this docid
+	 *         can match.
+	 */
+	private int universe(List<ArgPtr> argPtrs) {
+
+		int universe = Integer.MAX_VALUE;
+		for (ArgPtr ptr : argPtrs) {
+			int size = ptr.scoreList.size();
+			if (size == 0)
+				return 0;
+			universe = Math.min(universe, ptr.scoreList.getDocid(size - 1) + 1);
+		}
+		return universe;
+	}
+
+	/**
+	 * Intersect the argument lists with bitsets. The shortest list sets the
+	 * initial bits and scores, and each other list keeps only the bits that
+	 * it also contains. The scores are kept parallel to the shortest list,
+	 * not indexed by docid, so they take space in proportion to the list
+	 * rather than to the universe; since every list is sorted, the slot of
+	 * a matching docid is found by walking the shortest list in step.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param argPtrs
+	 *            The argument lists, shortest first.
+	 * @param result
+	 *            The result to add matching documents to.
+	 */
+	private void evaluateBitset(RetrievalModel r, List<ArgPtr> argPtrs,
+			QryResult result) {
+
+		int universe = universe(argPtrs);
+		long[] bits = new long[(universe + 63) >>> 6];
+		long[] next = new long[bits.length];
+		ScoreList list0 = argPtrs.get(0).scoreList;
+		double[] scores = new double[list0.size()];
+		for (int i = 0; i < list0.size(); i++) {
+			int docid = list0.getDocid(i);
+			if (docid >= universe)
+				break;
+			bits[docid >>> 6] |= 1L << docid;
+			scores[i] = list0.getDocidScore(i);
+		}
+
+		for (int j = 1; j < argPtrs.size(); j++) {
+			ScoreList listj = argPtrs.get(j).scoreList;
+			int k = 0;
+			for (int i = 0; i < listj.size(); i++) {
+				int docid = listj.getDocid(i);
+				if (docid >= universe)
+					break;
+				if ((bits[docid >>> 6] & (1L << docid)) != 0) {
+					next[docid >>> 6] |= 1L << docid;
+					while (list0.getDocid(k) < docid)
+						k++;
+					scores[k] = combineScore(r, scores[k],
+							listj.getDocidScore(i));
+				}
+			}
+
+			long[] tmp = bits;
+			bits = next;
+			next = tmp;
+			Arrays.fill(next, 0L);
+		}
+
+		int k = 0;
+		for (int w = 0; w < bits.length; w++) {
+			long word = bits[w];
+			while (word != 0) {
+				int docid = (w << 6) + Long.numberOfTrailingZeros(word);
+				while (list0.getDocid(k) < docid)
+					k++;
+				result.docScores.add(docid, scores[k]);
+				word &= word - 1;
+			}
+		}
+	}
+
+	/**
+	 * Combine the score of a document so far with its score in another
+	 * argument.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param score
+	 *            The score so far.
+	 * @param argScore
+	 *            The document's score in the next argument.
+	 * @return The combined score.
+	 */
+	private double combineScore(RetrievalModel r, double score, double argScore) {
+		if (r instanceof RetrievalModelRankedBoolean)
+			return Math.min(argScore, score);
+		return 1.0;
+	}
+
 	/*
 	 * Calculate the default score for the specified document if it does not
 	 * match the query operator. This score is 0 for many retrieval models, but
@@ -171,4 +328,14 @@ public class QryopSlAnd extends QryopSl {
 
 		return ("#AND( " + result + ")");
 	}
+
+	/**
+	 * A document's AND score is the minimum of its argument scores, so the
+	 * order of the arguments does not matter.
+	 * 
+	 * @return The canonical string version of this query operator.
+	 */
+	public String toCanonicalString() {
+		return ("#AND( " + canonicalArgs(true) + ")");
+	}
 }
@@ -33,8 +33,8 @@ public class QryopSlOr extends QryopSl {
 	}
 
 	/**
-	 * Evaluate the or operator by finding the smallest current doc id, same as
-	 * the approach for "#Syn".
+	 * Evaluate the or operator term at a time by merging the score lists of
+	 * the arguments in docid order, through a heap of the arguments.
 	 * 
 	 * @param r
 	 *            retrieval model
@@ -42,52 +42,61 @@ public class QryopSlOr extends QryopSl {
 	 * @throws IOException
 	 */
 	public QryResult evaluateLinear(RetrievalModel r) throws IOException {
-		super.allocArgPtrs(r);
+		List<ArgPtr> argPtrs = super.allocArgPtrs(r);
 		QryResult result = new QryResult();
 
-		while (this.argPtrs.size() > 0) {
+		// The arguments that have documents left are kept in a heap keyed by
+		// their next docid, so the smallest docid is found without scanning
+		// every argument. Arguments that matched nothing are never added.
 
-			int nextDocid = getSmallestCurrentDocid();
+		DocidHeap heap = new DocidHeap(argPtrs.size());
+		for (int i = 0; i < argPtrs.size(); i++) {
+			ScoreList list = argPtrs.get(i).scoreList;
+			if (list.size() > 0)
+				heap.add(i, list.getDocid(0));
+		}
+
+		while (heap.size() > 0) {
+
+			int nextDocid = heap.topDocid();
 
 			// Create a new posting that is the union of the posting lists
-			// that match the nextDocid.
+			// that match the nextDocid. An argument that reaches the end of
+			// its list leaves the heap.
 
 			double score = 0;
-			for (int i = 0; i < this.argPtrs.size(); i++) {
-				ArgPtr ptri = this.argPtrs.get(i);
-
-				/*
-				 * There might be inverted list where there is no match at all
-				 */
-				if (ptri.nextDoc < ptri.scoreList.scores.size()
-						&& ptri.scoreList.getDocid(ptri.nextDoc) == nextDocid) {
-					score = Math.max(score,
-							ptri.scoreList.getDocidScore(ptri.nextDoc));
-					ptri.nextDoc++;
-				}
-			}
+			do {
+				ArgPtr ptri = argPtrs.get(heap.top());
+				score = Math.max(score,
+						ptri.scoreList.getDocidScore(ptri.nextDoc));
+				ptri.nextDoc++;
+
+				if (ptri.nextDoc < ptri.scoreList.size())
+					heap.updateTop(ptri.scoreList.getDocid(ptri.nextDoc));
+				else
+					heap.pop();
+			} while (heap.size() > 0 && heap.topDocid() == nextDocid);
 
 			result.docScores.add(nextDocid, score);
-
-			// If an ArgPtr has reached the end of its list, remove it.
-			// The loop is backwards so that removing an arg does not
-			// interfere with iteration.
-
-			for (int i = this.argPtrs.size() - 1; i >= 0; i--) {
-				ArgPtr ptri = this.argPtrs.get(i);
-
-				if (ptri.nextDoc >= ptri.scoreList.scores.size()) {
-					this.argPtrs.remove(i);
-				}
-			}
 		}
 
-		// free arg ptrs
-		freeArgPtrs();
-
 		return result;
 	}
 
+	/**
+	 * Return a cursor that merges the arguments' cursors one document at a
+	 * time.
+	 * 
+	 * @param r
+	 *            retrieval model
+	 * @return a new cursor, positioned before the first document
+	 * @throws IOException
+	 */
+	@Override
+	public ScoreCursor scoreCursor(RetrievalModel r) throws IOException {
+		return new ScoreCursorOr(argScoreCursors(r));
+	}
+
 	/**
 	 * Evaluate the or operator by using hash map and then sort the output
 	 * 
@@ -98,21 +107,22 @@ public class QryopSlOr extends QryopSl {
 	 */
 	public QryResult evaluateHashMap(RetrievalModel r) throws IOException {
 
-		super.allocArgPtrs(r);
+		List<ArgPtr> argPtrs = super.allocArgPtrs(r);
 		QryResult result = new QryResult();
 
 		/*
 		 * Build the map, every entry maps from a doc id to its score
 		 */
 		Map<Integer, Integer> idToScore = new HashMap<Integer, Integer>();
-		for (ArgPtr ptr : this.argPtrs) {
-			for (ScoreList.ScoreListEntry entry : ptr.scoreList.scores) {
-				Integer score = idToScore.get(entry.docid);
+		for (ArgPtr ptr : argPtrs) {
+			for (int i = 0; i < ptr.scoreList.size(); i++) {
+				int docid = ptr.scoreList.getDocid(i);
+				int entryScore = (int) ptr.scoreList.getDocidScore(i);
+				Integer score = idToScore.get(docid);
 				if (score != null) {
-					idToScore.put(entry.docid,
-							Math.max(score, (int) entry.score));
+					idToScore.put(docid, Math.max(score, entryScore));
 				} else {
-					idToScore.put(entry.docid, (int) entry.score);
+					idToScore.put(docid, entryScore);
 				}
 			}
 		}
@@ -131,9 +141,6 @@ public class QryopSlOr extends QryopSl {
 			result.docScores.add(e.key, e.value);
 		}
 
-		// free arg ptrs
-		freeArgPtrs();
-
 		return result;
 	}
 
@@ -147,7 +154,7 @@ public class QryopSlOr extends QryopSl {
 	 */
 	public QryResult evaluateTreeMap(RetrievalModel r) throws IOException {
 
-		super.allocArgPtrs(r);
+		List<ArgPtr> argPtrs = super.allocArgPtrs(r);
 		QryResult result = new QryResult();
 
 		/*
@@ -156,8 +163,8 @@ public class QryopSlOr extends QryopSl {
 		 * sorted
 		 */
 		Map<Integer, Integer> idToScore = new TreeMap<Integer, Integer>();
-		for (ArgPtr ptr : this.argPtrs) {
-			for (int i = 0; i < ptr.scoreList.scores.size(); i++) {
+		for (ArgPtr ptr : argPtrs) {
+			for (int i = 0; i < ptr.scoreList.size(); i++) {
 				int id = ptr.scoreList.getDocid(i);
 				int score = (int) ptr.scoreList.getDocidScore(i);
 				Integer currScore = idToScore.get(id);
@@ -178,8 +185,6 @@ public class QryopSlOr extends QryopSl {
 		for (Map.Entry<Integer, Integer> e : idToScore.entrySet()) {
 			result.docScores.add(e.getKey(), e.getValue());
 		}
-		// free arg ptrs
-		freeArgPtrs();
 
 		return result;
 	}
@@ -217,30 +222,21 @@ public class QryopSlOr extends QryopSl {
 		return ("#OR( " + result + ")");
 	}
 
-	@Override
-	public double getDefaultScore(RetrievalModel r, long docid)
-			throws IOException {
-
-		return 0.0;
-	}
-
 	/**
-	 * Return the smallest unexamined docid from the ArgPtrs.
+	 * A document's OR score is the maximum of its argument scores, so the
+	 * order of the arguments does not matter.
 	 * 
-	 * @return The smallest internal document id.
+	 * @return The canonical string version of this query operator.
 	 */
-	public int getSmallestCurrentDocid() {
-
-		int nextDocid = Integer.MAX_VALUE;
+	public String toCanonicalString() {
+		return ("#OR( " + canonicalArgs(true) + ")");
+	}
 
-		for (int i = 0; i < this.argPtrs.size(); i++) {
-			ArgPtr ptri = this.argPtrs.get(i);
-			if (ptri.nextDoc < ptri.scoreList.scores.size()
-					&& nextDocid > ptri.scoreList.getDocid(ptri.nextDoc))
-				nextDocid = ptri.scoreList.getDocid(ptri.nextDoc);
-		}
+	@Override
+	public double getDefaultScore(RetrievalModel r, long docid)
+			throws IOException {
 
-		return (nextDocid);
+		return 0.0;
 	}
 
 }
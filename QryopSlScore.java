@@ -72,38 +72,51 @@ public class QryopSlScore extends QryopSl {
 	 */
 	public QryResult evaluateBoolean(RetrievalModel r) throws IOException {
 
-		// Evaluate the query argument.
+		// If the argument returns a score list there is nothing to do.
 
-		QryResult result = args.get(0).evaluate(r);
+		if (!(args.get(0) instanceof QryopIl))
+			return args.get(0).evaluate(r);
 
-		// Each pass of the loop computes a score for one document. Note:
-		// If the evaluate operation above returned a score list (which is
-		// very possible), this loop gets skipped.
+		// Read the argument's postings one at a time, without materializing
+		// its inverted list. Each pass of the loop computes a score for one
+		// document.
 
-		for (int i = 0; i < result.invertedList.df; i++) {
+		QryResult result = new QryResult();
+		PostingsCursor postings = ((QryopIl) args.get(0)).cursor(r, true);
+
+		while (postings.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
 
 			// DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY.
 			// Unranked Boolean. All matching documents get a score of 1.0.
 			if (r instanceof RetrievalModelUnrankedBoolean) {
-				
-				result.docScores.add(result.invertedList.postings.get(i).docid,
-						(float) 1.0);
+
+				result.docScores.add(postings.docID(), (float) 1.0);
 			} else {
 				/*
 				 * Ranked boolean, add the term frequency as the score
 				 */
-				result.docScores.add(result.invertedList.postings.get(i).docid,
-						result.invertedList.postings.get(i).tf);
+				result.docScores.add(postings.docID(), postings.freq());
 			}
 		}
 
-		// The SCORE operator should not return a populated inverted list.
-		// If there is one, replace it with an empty inverted list.
+		return result;
+	}
+
+	/**
+	 * Return a cursor that scores the argument's postings one document at a
+	 * time.
+	 * 
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @return A new cursor, positioned before the first document.
+	 * @throws IOException
+	 */
+	public ScoreCursor scoreCursor(RetrievalModel r) throws IOException {
 
-		if (result.invertedList.df > 0)
-			result.invertedList = new InvList();
+		if (!(args.get(0) instanceof QryopIl))
+			return ((QryopSl) args.get(0)).scoreCursor(r);
 
-		return result;
+		return new ScoreCursorScore(((QryopIl) args.get(0)).cursor(r), r);
 	}
 
 	/*
@@ -140,4 +153,8 @@ public class QryopSlScore extends QryopSl {
 
 		return ("#SCORE( " + result + ")");
 	}
+
+	public String toCanonicalString() {
+		return ("#SCORE( " + canonicalArgs(false) + ")");
+	}
 }
@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+
+/**
+ * Rewrites a parsed query into an equivalent query that is cheaper to
+ * evaluate. The rewrites never change the documents or the scores that the
+ * query returns under the boolean retrieval models, in which AND scores are
+ * minimums and OR scores are maximums:
+ *
+ * <ul>
+ * <li>Nested AND, OR and SYN operators of the same type are flattened into
+ * their parent, and AND, OR or SYN operators with a single argument are
+ * replaced by the argument (when the argument can take the operator's
+ * place).</li>
+ * <li>Duplicate arguments of AND and OR are removed. Duplicates are kept in
+ * SYN, where they change term frequencies.</li>
+ * <li>Arguments that cannot match any document, such as terms that do not
+ * occur in the index, are removed from OR and SYN. An AND with such an
+ * argument is reduced to that argument, since it cannot match either.</li>
+ * <li>The arguments of AND are ordered by estimated df, smallest first.</li>
+ * </ul>
+ *
+ * The estimated df of an operator is an upper bound on the number of
+ * documents that it matches: the df of a term, the smallest estimate of the
+ * arguments of AND, NEAR and WINDOW, and the sum of the estimates of the
+ * arguments of OR and SYN.
+ *
+ */
+public class QueryOptimizer {
+
+	// Estimated df of each operator that has been looked at.
+
+	private Map<Qryop, Long> estimates = new IdentityHashMap<Qryop, Long>();
+
+	/**
+	 * Optimize a query.
+	 *
+	 * @param q
+	 *            The parsed query. It is rewritten in place.
+	 * @return The root of the optimized query, which may be a different
+	 *         operator than q.
+	 * @throws IOException
+	 */
+	public Qryop optimize(Qryop q) throws IOException {
+
+		for (int i = 0; i < q.args.size(); i++)
+			q.args.set(i, optimize(q.args.get(i)));
+
+		if (q.args.isEmpty() || q instanceof QryopIlTerm)
+			return q;
+
+		if (q instanceof QryopSlAnd || q instanceof QryopSlOr
+				|| q instanceof QryopIlSyn)
+			flatten(q);
+
+		if (q instanceof QryopSlAnd || q instanceof QryopSlOr)
+			removeDuplicates(q);
+
+		if (q instanceof QryopSlOr || q instanceof QryopIlSyn)
+			removeEmpty(q);
+
+		if (q instanceof QryopSlAnd) {
+			for (Qryop arg : q.args)
+				if (estimateDf(arg) == 0) {
+					q.args.clear();
+					q.args.add(arg);
+					break;
+				}
+
+			Collections.sort(q.args, new Comparator<Qryop>() {
+
+				@Override
+				public int compare(Qryop arg0, Qryop arg1) {
+					return Long.compare(estimate(arg0), estimate(arg1));
+				}
+
+			});
+		}
+
+		// A single argument can replace its parent if it returns the same
+		// kind of result.
+
+		if (q.args.size() == 1 && !(q instanceof QryopIlNear)
+				&& !(q instanceof QryopIlWindow)) {
+			Qryop arg = q.args.get(0);
+			if ((q instanceof QryopSl && arg instanceof QryopSl)
+					|| (q instanceof QryopIlSyn && arg instanceof QryopIl))
+				return arg;
+		}
+
+		return q;
+	}
+
+	/**
+	 * Replace arguments that are operators of the same type as q with their
+	 * arguments.
+	 */
+	private void flatten(Qryop q) {
+		List<Qryop> args = new ArrayList<Qryop>();
+		for (Qryop arg : q.args)
+			if (arg.getClass() == q.getClass())
+				args.addAll(arg.args);
+			else
+				args.add(arg);
+		q.args.clear();
+		q.args.addAll(args);
+	}
+
+	private void removeDuplicates(Qryop q) {
+		Set<String> seen = new HashSet<String>();
+		List<Qryop> args = new ArrayList<Qryop>();
+		for (Qryop arg : q.args)
+			if (seen.add(arg.toCanonicalString()))
+				args.add(arg);
+		q.args.clear();
+		q.args.addAll(args);
+	}
+
+	/**
+	 * Remove the arguments that cannot match any document, keeping one if
+	 * none of them can.
+	 */
+	private void removeEmpty(Qryop q) throws IOException {
+		List<Qryop> args = new ArrayList<Qryop>();
+		for (Qryop arg : q.args)
+			if (estimateDf(arg) > 0)
+				args.add(arg);
+		if (args.isEmpty())
+			args.add(q.args.get(0));
+		q.args.clear();
+		q.args.addAll(args);
+	}
+
+	/**
+	 * @return The estimated df of an operator that has already been
+	 *         estimated.
+	 */
+	private long estimate(Qryop q) {
+		return this.estimates.get(q);
+	}
+
+	/**
+	 * Estimate the number of documents that an operator matches. The
+	 * estimate is an upper bound, so 0 means that the operator cannot match.
+	 *
+	 * @param q
+	 *            The operator.
+	 * @return The estimated df.
+	 * @throws IOException
+	 */
+	public long estimateDf(Qryop q) throws IOException {
+
+		Long cached = this.estimates.get(q);
+		if (cached != null)
+			return cached;
+
+		long df;
+		if (q instanceof QryopIlTerm) {
+			QryopIlTerm t = (QryopIlTerm) q;
+			df = df(t.getTerm(), t.getField());
+		} else if (q instanceof QryopSlAnd || q instanceof QryopIlNear
+				|| q instanceof QryopIlWindow) {
+			df = Long.MAX_VALUE;
+			for (Qryop arg : q.args)
+				df = Math.min(df, estimateDf(arg));
+			if (q.args.isEmpty())
+				df = 0;
+		} else {
+			df = 0;
+			for (Qryop arg : q.args)
+				df += estimateDf(arg);
+		}
+
+		this.estimates.put(q, df);
+		return df;
+	}
+
+	/**
+	 * Estimate the cost of evaluating an operator as the number of postings
+	 * that it reads, which is the sum of the dfs of its terms. The cost of
+	 * the operator and of every operator below it is stored in the
+	 * operators, so it is only computed once for a query tree.
+	 *
+	 * @param q
+	 *            The operator.
+	 * @return The estimated cost.
+	 * @throws IOException
+	 */
+	public long estimateCost(Qryop q) throws IOException {
+		if (q.cost >= 0)
+			return q.cost;
+		long cost = 0;
+		if (q instanceof QryopIlTerm)
+			cost = estimateDf(q);
+		for (Qryop arg : q.args)
+			cost += estimateCost(arg);
+		q.cost = cost;
+		return cost;
+	}
+
+	/**
+	 * @return The number of documents that contain a term.
+	 */
+	private static long df(String term, String field) throws IOException {
+		if (QryEval.SNAPSHOT != null)
+			return QryEval.SNAPSHOT.get(term, field).df;
+		return QryEval.READER.docFreq(new Term(field, term));
+	}
+
+	/**
+	 * Describe the plan of an optimized query: one operator per line,
+	 * indented by depth, with its estimated df.
+	 *
+	 * @param q
+	 *            The query.
+	 * @return The plan.
+	 * @throws IOException
+	 */
+	public String explain(Qryop q) throws IOException {
+		StringBuilder plan = new StringBuilder();
+		explain(q, "", plan);
+		return plan.toString();
+	}
+
+	private void explain(Qryop q, String indent, StringBuilder plan)
+			throws IOException {
+
+		plan.append(indent);
+		if (q instanceof QryopIlTerm) {
+			plan.append(q.toString());
+		} else {
+			String s = q.toCanonicalString();
+			plan.append(s.substring(0, s.indexOf('(')));
+		}
+		plan.append("  (df <= ").append(estimateDf(q)).append(")\n");
+
+		for (Qryop arg : q.args)
+			explain(arg, indent + "  ", plan);
+	}
+}
@@ -0,0 +1,272 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Evaluates a query file as a stream. A reader thread reads queries one line
+ * at a time, worker threads evaluate them with
+ * {@link QryEval#outputEntry(String, PreparedQuery, RetrievalModel)}, and the
+ * calling thread writes their entries in the order of the query file, so
+ * reading, evaluation and writing overlap.
+ *
+ * At most a fixed number of queries are in the pipeline at once: read but
+ * not yet evaluated, being evaluated, or evaluated and waiting for an
+ * earlier query to be written. When the pipeline is full the reader waits
+ * for the writer, so memory use does not depend on the size of the query
+ * file.
+ *
+ * If subtrees are shared ({@link QryEval#SHARED_SUBTREES}), each query
+ * passes through the workers twice. First a worker prepares it (parses and
+ * optimizes it) and counts its subtrees; then a worker evaluates it and
+ * releases the counts. Queries waiting to be prepared are taken before
+ * queries waiting to be evaluated, so the counts of the queries in the
+ * pipeline are registered before the earlier ones are evaluated, and the
+ * subtrees that are shared are those repeated among the queries in the
+ * pipeline. A query that the result cache will answer, because an
+ * equivalent query is already counted, is not counted itself. Each query
+ * is still prepared once.
+ *
+ */
+public class QueryPipeline {
+
+	// Marks the end of the query file in the queue of read queries. It is
+	// taken after every other query.
+
+	private static final Query END = new Query(Long.MAX_VALUE, null);
+
+	private final RetrievalModel r;
+	private final int threads;
+	private final Semaphore window;
+
+	private final BlockingQueue<Query> read = new PriorityBlockingQueue<Query>();
+	private final Map<Long, List<String>> evaluated = new HashMap<Long, List<String>>();
+
+	// The result cache keys of the counted queries in the pipeline.
+
+	private final Set<String> counted = new HashSet<String>();
+
+	// Set by the reader at the end of the file, and by any stage that fails.
+	// Guarded by the lock on evaluated.
+
+	private long queryCount = -1;
+	private Throwable failure;
+
+	/**
+	 * @param r
+	 *            The retrieval model.
+	 * @param threads
+	 *            The number of threads that evaluate queries.
+	 * @param capacity
+	 *            The largest number of queries in the pipeline at once.
+	 */
+	public QueryPipeline(RetrievalModel r, int threads, int capacity) {
+		this.r = r;
+		this.threads = threads;
+		this.window = new Semaphore(capacity);
+	}
+
+	/**
+	 * Evaluate every query of a query file and write the entries.
+	 *
+	 * @param in
+	 *            The query file, one query per line.
+	 * @param out
+	 *            Where the entries are written, one per line.
+	 * @throws IOException
+	 *             If the query file cannot be read, the entries cannot be
+	 *             written, or a query cannot be evaluated.
+	 */
+	public void run(final BufferedReader in, Writer out) throws IOException {
+
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads + 1);
+		try {
+			pool.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					readQueries(in);
+				}
+
+			});
+			for (int i = 0; i < this.threads; i++)
+				pool.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						evaluateQueries();
+					}
+
+				});
+			writeEntries(out);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void readQueries(BufferedReader in) {
+		long count = 0;
+		try {
+			while (true) {
+				this.window.acquire();
+				String query = in.readLine();
+				if (query == null)
+					break;
+				this.read.put(new Query(count++, query));
+			}
+			finish(count, null);
+		} catch (InterruptedException e) {
+			// the writer has stopped
+		} catch (Throwable e) {
+			finish(count, e);
+		}
+		this.read.add(END);
+	}
+
+	/**
+	 * Count the subtrees of a prepared query, unless an equivalent query is
+	 * already counted: the result cache will answer this one.
+	 *
+	 * @return Whether the query's subtrees were counted.
+	 */
+	private boolean count(Qryop q) {
+		if (q == null)
+			return false;
+		if (QryEval.RESULT_CACHE != null) {
+			synchronized (this.counted) {
+				if (!this.counted.add(ResultCache.key(q, this.r)))
+					return false;
+			}
+		}
+		QryEval.SHARED_SUBTREES.add(q);
+		return true;
+	}
+
+	/**
+	 * Release the counts of an evaluated query.
+	 */
+	private void release(Qryop q) {
+		QryEval.SHARED_SUBTREES.release(q);
+		if (QryEval.RESULT_CACHE != null) {
+			synchronized (this.counted) {
+				this.counted.remove(ResultCache.key(q, this.r));
+			}
+		}
+	}
+
+	private void evaluateQueries() {
+		try {
+			while (true) {
+				Query query = this.read.take();
+				if (query == END) {
+					this.read.add(END);
+					return;
+				}
+
+				if (query.prepared == null) {
+					query.prepared = QryEval.prepareEntry(query.text);
+					if (QryEval.SHARED_SUBTREES != null) {
+						query.counted = count(query.prepared.tree);
+						this.read.add(query);
+						continue;
+					}
+				}
+
+				List<String> entries = QryEval.outputEntry(query.text,
+						query.prepared, this.r);
+				if (query.counted)
+					release(query.prepared.tree);
+				synchronized (this.evaluated) {
+					this.evaluated.put(query.number, entries);
+					this.evaluated.notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			// the writer has stopped
+		} catch (Throwable e) {
+			finish(-1, e);
+		}
+	}
+
+	/**
+	 * Write the entries of each query as soon as it and every query before
+	 * it have been evaluated.
+	 */
+	private void writeEntries(Writer out) throws IOException {
+		for (long next = 0;; next++) {
+			List<String> entries;
+			synchronized (this.evaluated) {
+				while (this.failure == null && next != this.queryCount
+						&& !this.evaluated.containsKey(next))
+					waitForResults();
+				if (this.failure != null)
+					throw new IOException(this.failure);
+				if (next == this.queryCount)
+					return;
+				entries = this.evaluated.remove(next);
+			}
+
+			for (String entry : entries)
+				out.write(entry + '\n');
+			this.window.release();
+		}
+	}
+
+	private void waitForResults() throws IOException {
+		try {
+			this.evaluated.wait();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Record the number of queries in the file, or a failure.
+	 */
+	private void finish(long count, Throwable e) {
+		synchronized (this.evaluated) {
+			if (count >= 0)
+				this.queryCount = count;
+			if (e != null && this.failure == null)
+				this.failure = e;
+			this.evaluated.notifyAll();
+		}
+	}
+
+	/**
+	 * A query in the pipeline. Queries are taken from the queue in the
+	 * order of the query file, those that have not been prepared first.
+	 */
+	private static final class Query implements Comparable<Query> {
+
+		final long number;
+		final String text;
+
+		// Set by the worker that prepares the query.
+
+		PreparedQuery prepared;
+		boolean counted;
+
+		Query(long number, String text) {
+			this.number = number;
+			this.text = text;
+		}
+
+		@Override
+		public int compareTo(Query other) {
+			if (this != END && other != END
+					&& (this.prepared == null) != (other.prepared == null))
+				return (this.prepared == null) ? -1 : 1;
+			return Long.compare(this.number, other.number);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of final query results. The key is the canonical string of the
+ * parsed query tree (see {@link Qryop#toCanonicalString()}) together with
+ * the retrieval model and its parameters, so queries that differ only in
+ * the order of commutative arguments or in the case of operator names share
+ * an entry. The value is the ranked top documents of the query.
+ *
+ * The cache holds at most a given number of results and evicts the least
+ * recently used. Results may also be given a time to live, after which they
+ * are evaluated again; this bounds how stale a result can be if the index
+ * is replaced while the process runs. The cache may be used by several
+ * threads.
+ *
+ */
+public class ResultCache {
+
+	private final int maxEntries;
+	private final long ttlNanos;
+	private long hits = 0;
+	private long misses = 0;
+
+	private final LinkedHashMap<String, Entry> results;
+
+	/**
+	 * @param maxEntries
+	 *            The maximum number of results to cache.
+	 * @param ttlMillis
+	 *            How long a result may be used, in milliseconds, or 0 if
+	 *            results do not expire.
+	 */
+	public ResultCache(final int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlNanos = ttlMillis * 1000000L;
+		this.results = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > ResultCache.this.maxEntries;
+			}
+
+		};
+	}
+
+	/**
+	 * Return the cache key of a query.
+	 *
+	 * @param q
+	 *            The parsed query.
+	 * @param r
+	 *            The retrieval model.
+	 * @return The key.
+	 */
+	public static String key(Qryop q, RetrievalModel r) {
+		return r.toString() + ' ' + q.toCanonicalString();
+	}
+
+	/**
+	 * @param key
+	 *            The key of the query, from {@link #key(Qryop, RetrievalModel)}.
+	 * @return The cached result, or null if it is not cached or has expired.
+	 *         The result must not be modified.
+	 */
+	public synchronized ScoreList get(String key) {
+		Entry entry = this.results.get(key);
+		if (entry != null && this.ttlNanos > 0
+				&& System.nanoTime() - entry.time > this.ttlNanos) {
+			this.results.remove(key);
+			entry = null;
+		}
+
+		if (entry == null) {
+			this.misses++;
+			Metrics.RESULT_CACHE_MISSES.increment();
+			return null;
+		}
+		this.hits++;
+		Metrics.RESULT_CACHE_HITS.increment();
+		return entry.result;
+	}
+
+	/**
+	 * Cache the result of a query.
+	 *
+	 * @param key
+	 *            The key of the query, from {@link #key(Qryop, RetrievalModel)}.
+	 * @param result
+	 *            The ranked top documents. It must not be modified later.
+	 */
+	public synchronized void put(String key, ScoreList result) {
+		this.results.put(key, new Entry(result, System.nanoTime()));
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "result cache: " + this.results.size() + " results, "
+				+ this.hits + " hits, " + this.misses + " misses";
+	}
+
+	private static final class Entry {
+
+		final ScoreList result;
+		final long time;
+
+		Entry(ScoreList result, long time) {
+			this.result = result;
+			this.time = time;
+		}
+	}
+}
@@ -25,4 +25,15 @@ public abstract class RetrievalModel {
    *  @return true if the parameter is set successfully, false otherwise.
    */
   public abstract boolean setParameter (String parameterName, String value);
+
+  /**
+   *  Return the name of the retrieval model and the values of its
+   *  parameters.  Cached results are only reused for a retrieval model
+   *  with the same string, so models that have parameters must include
+   *  them.
+   *  @return The retrieval model's name and parameters.
+   */
+  public String toString () {
+    return this.getClass ().getSimpleName ();
+  }
 }
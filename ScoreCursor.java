@@ -0,0 +1,81 @@
+import java.io.IOException;
+
+/**
+ * A cursor over a score list, the score-list counterpart of
+ * {@link PostingsCursor}. Query operators that return score lists can expose
+ * their result as a cursor, so that a whole query tree is evaluated
+ * document-at-a-time: the cursors of all operators advance together and each
+ * document is scored once, without materializing intermediate score lists.
+ *
+ * A new cursor is positioned before the first document, so docID() returns -1
+ * until nextDoc() or advance() is called.
+ *
+ */
+public abstract class ScoreCursor {
+
+	public static final int NO_MORE_DOCS = PostingsCursor.NO_MORE_DOCS;
+
+	/**
+	 * @return The internal docid of the current document, -1 if the cursor
+	 *         has not been started, or NO_MORE_DOCS if it is exhausted.
+	 */
+	public abstract int docID();
+
+	/**
+	 * Move to the next document in the list.
+	 *
+	 * @return The docid of the next document, or NO_MORE_DOCS.
+	 * @throws IOException
+	 */
+	public abstract int nextDoc() throws IOException;
+
+	/**
+	 * Move to the first document whose docid is greater than or equal to the
+	 * target. The target must be greater than the current docid.
+	 *
+	 * @param target
+	 *            The docid to move to.
+	 * @return The docid of the document moved to, or NO_MORE_DOCS.
+	 * @throws IOException
+	 */
+	public int advance(int target) throws IOException {
+		int doc;
+		while ((doc = nextDoc()) < target)
+			;
+		return doc;
+	}
+
+	/**
+	 * @return The score of the current document.
+	 * @throws IOException
+	 */
+	public abstract double score() throws IOException;
+
+	/**
+	 * @return An upper bound on the score of any document in the list, or
+	 *         positive infinity if no bound is known.
+	 */
+	public double maxScore() {
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Tell the cursor that documents scoring less than minScore can no longer
+	 * enter the results, because the top-k heap is full and its worst entry
+	 * has this score. A cursor may then skip such documents. Documents that
+	 * score exactly minScore must still be returned, because ties are broken
+	 * by external id. The value never decreases. By default nothing is
+	 * skipped.
+	 *
+	 * @param minScore
+	 *            The lowest score that can still enter the results.
+	 * @throws IOException
+	 */
+	public void setMinCompetitiveScore(double minScore) throws IOException {
+	}
+
+	/**
+	 * @return An upper bound on the number of documents in the list.
+	 */
+	public abstract long cost();
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A cursor that returns the documents that every argument cursor contains, as
+ * the AND operator does for the boolean retrieval models. The argument with
+ * the fewest documents leads, and the others are moved to its documents with
+ * advance().
+ *
+ */
+public class ScoreCursorAnd extends ScoreCursor {
+
+	private ScoreCursor[] args;
+	private RetrievalModel r;
+	private int doc = -1;
+
+	/**
+	 * @param args
+	 *            The argument cursors. They must not have been started.
+	 * @param r
+	 *            A retrieval model that controls how scores are combined.
+	 */
+	public ScoreCursorAnd(List<ScoreCursor> args, RetrievalModel r) {
+
+		// Sort the arguments so that the shortest lists are first, as
+		// QryopSlAnd does.
+
+		List<ScoreCursor> sorted = new ArrayList<ScoreCursor>(args);
+		Collections.sort(sorted, new Comparator<ScoreCursor>() {
+
+			@Override
+			public int compare(ScoreCursor arg0, ScoreCursor arg1) {
+				return Long.compare(arg0.cost(), arg1.cost());
+			}
+
+		});
+
+		this.args = sorted.toArray(new ScoreCursor[sorted.size()]);
+		this.r = r;
+
+		if (this.args.length == 0)
+			this.doc = NO_MORE_DOCS;
+	}
+
+	@Override
+	public int docID() {
+		return this.doc;
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		if (this.doc == NO_MORE_DOCS)
+			return this.doc;
+		return nextMatch(this.args[0].nextDoc());
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		if (this.doc == NO_MORE_DOCS)
+			return this.doc;
+		return nextMatch(this.args[0].advance(target));
+	}
+
+	/**
+	 * Starting from candidate, find the next document that all of the
+	 * arguments contain.
+	 *
+	 * @param candidate
+	 *            The current docid of the first (shortest) argument.
+	 * @return The docid of the matching document, or NO_MORE_DOCS.
+	 * @throws IOException
+	 */
+	private int nextMatch(int candidate) throws IOException {
+
+		int j = 1;
+		while (j < this.args.length && candidate != NO_MORE_DOCS) {
+			int d = this.args[j].docID();
+			if (d < candidate)
+				d = this.args[j].advance(candidate);
+			if (d == candidate) {
+				j++;
+			} else if (d == NO_MORE_DOCS) {
+				candidate = NO_MORE_DOCS;
+			} else {
+				candidate = this.args[0].advance(d);
+				j = 1;
+			}
+		}
+
+		this.doc = candidate;
+		return this.doc;
+	}
+
+	@Override
+	public double score() throws IOException {
+
+		double score = this.args[0].score();
+
+		for (int j = 1; j < this.args.length; j++) {
+			if (this.r instanceof RetrievalModelRankedBoolean)
+				score = Math.min(this.args[j].score(), score);
+			else
+				score = 1.0;
+		}
+
+		return score;
+	}
+
+	@Override
+	public double maxScore() {
+
+		if (this.args.length == 0)
+			return 0.0;
+
+		if (this.r instanceof RetrievalModelRankedBoolean) {
+			double maxScore = Double.POSITIVE_INFINITY;
+			for (ScoreCursor arg : this.args)
+				maxScore = Math.min(maxScore, arg.maxScore());
+			return maxScore;
+		}
+
+		return (this.args.length > 1) ? 1.0 : this.args[0].maxScore();
+	}
+
+	/**
+	 * With ranked boolean scores a document's score is the minimum of its
+	 * argument scores, so a document that scores less than minScore in any
+	 * argument cannot be competitive. Each argument may skip such documents.
+	 */
+	@Override
+	public void setMinCompetitiveScore(double minScore) throws IOException {
+		if (this.r instanceof RetrievalModelRankedBoolean)
+			for (ScoreCursor arg : this.args)
+				arg.setMinCompetitiveScore(minScore);
+	}
+
+	@Override
+	public long cost() {
+		return (this.args.length == 0) ? 0 : this.args[0].cost();
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * A cursor over a score list that is already in memory.
+ *
+ */
+public class ScoreCursorList extends ScoreCursor {
+
+	private ScoreList scoreList;
+	private int n = -1;
+	private double maxScore = Double.NaN;
+
+	public ScoreCursorList(ScoreList scoreList) {
+		this.scoreList = scoreList;
+	}
+
+	@Override
+	public int docID() {
+		if (this.n < 0)
+			return -1;
+		if (this.n >= this.scoreList.size())
+			return NO_MORE_DOCS;
+		return this.scoreList.getDocid(this.n);
+	}
+
+	@Override
+	public int nextDoc() {
+		if (this.n < this.scoreList.size())
+			this.n++;
+		return docID();
+	}
+
+	@Override
+	public int advance(int target) {
+		if (this.n < this.scoreList.size())
+			this.n = this.scoreList.advance(Math.max(this.n, 0), target);
+		return docID();
+	}
+
+	@Override
+	public double score() {
+		return this.scoreList.getDocidScore(this.n);
+	}
+
+	@Override
+	public double maxScore() {
+		if (Double.isNaN(this.maxScore)) {
+			this.maxScore = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < this.scoreList.size(); i++)
+				this.maxScore = Math.max(this.maxScore,
+						this.scoreList.getDocidScore(i));
+		}
+		return this.maxScore;
+	}
+
+	@Override
+	public long cost() {
+		return this.scoreList.size();
+	}
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A cursor that returns the documents that any argument cursor contains, as
+ * the OR operator does. A document's score is the largest of its scores in
+ * the arguments that contain it.
+ *
+ * The cursor supports MaxScore-style pruning for top-k retrieval. Because a
+ * document's score is the maximum of its argument scores, a document can only
+ * be competitive if it is contained by an argument whose maximum score is at
+ * least the minimum competitive score. Arguments whose maximum score is below
+ * it become non-essential: they no longer produce candidate documents, and
+ * are only advanced to the candidates of the essential arguments when they
+ * could still raise a candidate's score.
+ *
+ */
+public class ScoreCursorOr extends ScoreCursor {
+
+	// The arguments, in increasing order of maximum score. Arguments before
+	// firstEssential are non-essential.
+
+	private ScoreCursor[] args;
+	private double[] maxScores;
+	private int firstEssential = 0;
+	private int doc = -1;
+
+	/**
+	 * @param args
+	 *            The argument cursors. They must not have been started.
+	 */
+	public ScoreCursorOr(List<ScoreCursor> args) {
+
+		this.args = args.toArray(new ScoreCursor[args.size()]);
+
+		Arrays.sort(this.args, new Comparator<ScoreCursor>() {
+
+			@Override
+			public int compare(ScoreCursor arg0, ScoreCursor arg1) {
+				return Double.compare(arg0.maxScore(), arg1.maxScore());
+			}
+
+		});
+
+		this.maxScores = new double[this.args.length];
+		for (int i = 0; i < this.args.length; i++)
+			this.maxScores[i] = this.args[i].maxScore();
+	}
+
+	@Override
+	public int docID() {
+		return this.doc;
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+
+		if (this.doc == NO_MORE_DOCS)
+			return this.doc;
+
+		// Move every essential argument that is on the current document (or
+		// that has not been started) to its next document.
+
+		int nextDocid = NO_MORE_DOCS;
+
+		for (int i = this.firstEssential; i < this.args.length; i++) {
+			int d = this.args[i].docID();
+			if (d <= this.doc)
+				d = this.args[i].nextDoc();
+			if (d < nextDocid)
+				nextDocid = d;
+		}
+
+		this.doc = nextDocid;
+		return this.doc;
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+
+		int nextDocid = NO_MORE_DOCS;
+
+		for (int i = this.firstEssential; i < this.args.length; i++) {
+			int d = this.args[i].docID();
+			if (d < target)
+				d = this.args[i].advance(target);
+			if (d < nextDocid)
+				nextDocid = d;
+		}
+
+		this.doc = nextDocid;
+		return this.doc;
+	}
+
+	@Override
+	public double score() throws IOException {
+
+		double score = 0;
+
+		for (int i = this.firstEssential; i < this.args.length; i++)
+			if (this.args[i].docID() == this.doc)
+				score = Math.max(score, this.args[i].score());
+
+		// Non-essential arguments can still raise the score of a candidate.
+		// Visit them from the highest maximum score down, and stop once none
+		// of the rest can beat the score so far.
+
+		for (int i = this.firstEssential - 1; i >= 0; i--) {
+			if (this.maxScores[i] <= score)
+				break;
+			int d = this.args[i].docID();
+			if (d < this.doc)
+				d = this.args[i].advance(this.doc);
+			if (d == this.doc)
+				score = Math.max(score, this.args[i].score());
+		}
+
+		return score;
+	}
+
+	@Override
+	public double maxScore() {
+		double maxScore = 0;
+		for (double s : this.maxScores)
+			maxScore = Math.max(maxScore, s);
+		return maxScore;
+	}
+
+	/**
+	 * Move the arguments that can no longer produce a competitive document
+	 * to the non-essential set, and pass the bound on to the arguments,
+	 * since an argument score below minScore cannot make a document
+	 * competitive either. Once every argument is non-essential, no document
+	 * can be competitive and the cursor is exhausted.
+	 */
+	@Override
+	public void setMinCompetitiveScore(double minScore) throws IOException {
+
+		while (this.firstEssential < this.args.length
+				&& this.maxScores[this.firstEssential] < minScore)
+			this.firstEssential++;
+
+		for (ScoreCursor arg : this.args)
+			arg.setMinCompetitiveScore(minScore);
+
+		if (this.firstEssential == this.args.length && this.doc != -1)
+			this.doc = NO_MORE_DOCS;
+	}
+
+	@Override
+	public long cost() {
+		long cost = 0;
+		for (ScoreCursor arg : this.args)
+			cost += arg.cost();
+		return cost;
+	}
+}
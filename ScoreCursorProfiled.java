@@ -0,0 +1,80 @@
+import java.io.IOException;
+
+/**
+ * A score cursor that passes every call through to another cursor and
+ * records the time and allocation of the calls, and the documents returned,
+ * in the profile of the operator that the cursor belongs to (see
+ * {@link OperatorProfile}).
+ *
+ */
+public class ScoreCursorProfiled extends ScoreCursor {
+
+	private final ScoreCursor in;
+	private final OperatorProfile.Cursor counters = new OperatorProfile.Cursor();
+
+	/**
+	 * @param in
+	 *            The cursor that is profiled.
+	 * @param profile
+	 *            The profile of the operator.
+	 */
+	public ScoreCursorProfiled(ScoreCursor in, OperatorProfile profile) {
+		this.in = in;
+		profile.add(this.counters);
+	}
+
+	@Override
+	public int docID() {
+		return this.in.docID();
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		long start = System.nanoTime();
+		long allocated = OperatorProfile.allocatedBytes();
+		int doc = this.in.nextDoc();
+		count(start, allocated, doc);
+		return doc;
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		long start = System.nanoTime();
+		long allocated = OperatorProfile.allocatedBytes();
+		int doc = this.in.advance(target);
+		count(start, allocated, doc);
+		return doc;
+	}
+
+	private void count(long start, long allocated, int doc) {
+		this.counters.nanos += System.nanoTime() - start;
+		this.counters.bytes += OperatorProfile.allocatedBytes() - allocated;
+		if (doc != NO_MORE_DOCS)
+			this.counters.docs++;
+	}
+
+	@Override
+	public double score() throws IOException {
+		long start = System.nanoTime();
+		double score = this.in.score();
+		this.counters.nanos += System.nanoTime() - start;
+		return score;
+	}
+
+	@Override
+	public double maxScore() {
+		return this.in.maxScore();
+	}
+
+	@Override
+	public void setMinCompetitiveScore(double minScore) throws IOException {
+		long start = System.nanoTime();
+		this.in.setMinCompetitiveScore(minScore);
+		this.counters.nanos += System.nanoTime() - start;
+	}
+
+	@Override
+	public long cost() {
+		return this.in.cost();
+	}
+}
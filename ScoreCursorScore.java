@@ -0,0 +1,66 @@
+import java.io.IOException;
+
+/**
+ * A cursor that scores the postings of an inverted list cursor, as the SCORE
+ * operator does. Each posting is scored when the cursor reaches it.
+ *
+ */
+public class ScoreCursorScore extends ScoreCursor {
+
+	private PostingsCursor postings;
+	private RetrievalModel r;
+
+	/**
+	 * @param postings
+	 *            The inverted list to score. It must not have been started.
+	 * @param r
+	 *            A retrieval model that controls how documents are scored.
+	 */
+	public ScoreCursorScore(PostingsCursor postings, RetrievalModel r) {
+		this.postings = postings;
+		this.r = r;
+	}
+
+	@Override
+	public int docID() {
+		return this.postings.docID();
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		return this.postings.nextDoc();
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		return this.postings.advance(target);
+	}
+
+	@Override
+	public double score() throws IOException {
+
+		// Unranked Boolean. All matching documents get a score of 1.0.
+		if (this.r instanceof RetrievalModelUnrankedBoolean)
+			return (float) 1.0;
+
+		// Ranked boolean, the term frequency is the score
+		return this.postings.freq();
+	}
+
+	@Override
+	public double maxScore() {
+
+		if (this.r instanceof RetrievalModelUnrankedBoolean)
+			return (float) 1.0;
+
+		if (this.r instanceof RetrievalModelRankedBoolean)
+			return this.postings.maxFreq();
+
+		return Double.POSITIVE_INFINITY;
+	}
+
+	@Override
+	public long cost() {
+		return this.postings.cost();
+	}
+}
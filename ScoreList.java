@@ -2,6 +2,9 @@
  *  This class implements the document score list data structure
  *  and provides methods for accessing and manipulating them.
  *
+ *  Entries are stored in parallel, growable docid and score arrays,
+ *  so adding a document score does not allocate an object.
+ *
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
@@ -9,20 +12,11 @@ import java.util.*;
 
 public class ScoreList {
 
-	// A little utilty class to create a <docid, score> object.
-
-	protected class ScoreListEntry {
-		protected int docid;
-		protected double score;
+	// Only the first size entries of the arrays are in use.
 
-		private ScoreListEntry(int docid, double score) {
-			this.docid = docid;
-			this.score = score;
-		}
-
-	}
-
-	List<ScoreListEntry> scores = new ArrayList<ScoreListEntry>();
+	private int[] docids = new int[16];
+	private double[] scores = new double[16];
+	private int size = 0;
 
 	/**
 	 * Append a document score to a score list.
@@ -34,7 +28,13 @@ public class ScoreList {
 	 * @return void
 	 */
 	public void add(int docid, double score) {
-		scores.add(new ScoreListEntry(docid, score));
+		if (this.size == this.docids.length) {
+			this.docids = Arrays.copyOf(this.docids, this.size * 2);
+			this.scores = Arrays.copyOf(this.scores, this.size * 2);
+		}
+		this.docids[this.size] = docid;
+		this.scores[this.size] = score;
+		this.size++;
 	}
 
 	/**
@@ -45,7 +45,7 @@ public class ScoreList {
 	 * @return The internal document id.
 	 */
 	public int getDocid(int n) {
-		return this.scores.get(n).docid;
+		return this.docids[n];
 	}
 
 	/**
@@ -56,7 +56,69 @@ public class ScoreList {
 	 * @return The document's score.
 	 */
 	public double getDocidScore(int n) {
-		return this.scores.get(n).score;
+		return this.scores[n];
+	}
+
+	/**
+	 * Find the first entry at or after index n whose docid is at least
+	 * target, with the same galloping search as {@link InvList#advance}.
+	 * 
+	 * @param n
+	 *            The index to start from.
+	 * @param target
+	 *            The docid to look for.
+	 * @return The index of the entry, or size() if there is none.
+	 */
+	public int advance(int n, int target) {
+
+		if (n >= this.size || this.docids[n] >= target)
+			return n;
+
+		// Gallop until docids[hi] >= target or the end of the list.
+
+		int lo = n;
+		int step = 1;
+		int hi = n + 1;
+
+		while (hi < this.size && this.docids[hi] < target) {
+			lo = hi;
+			step <<= 1;
+			hi = lo + step;
+		}
+
+		if (hi > this.size)
+			hi = this.size;
+
+		// docids[lo] < target, so binary search (lo, hi].
+
+		lo++;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.docids[mid] < target)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+
+		return lo;
+	}
+
+	/**
+	 * Return a cursor over this score list.
+	 * 
+	 * @return A new cursor, positioned before the first document.
+	 */
+	public ScoreCursor cursor() {
+		return new ScoreCursorList(this);
+	}
+
+	/**
+	 * Get the number of documents in the score list.
+	 * 
+	 * @return The number of documents.
+	 */
+	public int size() {
+		return this.size;
 	}
 
 }
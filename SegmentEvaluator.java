@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.AtomicReaderContext;
+
+/**
+ * Evaluates one query on several threads by splitting the index instead of
+ * the query: the whole query tree is evaluated separately on each segment of
+ * the index, and the top documents of the segments are merged. Term
+ * operators read only the postings of their thread's segment, offset by the
+ * segment's docBase, so docids stay index-wide and the segment results never
+ * overlap. Every document is scored within its own segment, and the boolean
+ * retrieval models do not use collection statistics, so the merged ranking
+ * is the same as the ranking of the whole index.
+ *
+ * Segment evaluation reads the Lucene index directly. It is not used with a
+ * postings snapshot, which has no segments, and it bypasses the postings
+ * cache, whose lists cover the whole index.
+ *
+ */
+public class SegmentEvaluator {
+
+	private static ExecutorService pool;
+
+	// The segment that the current thread is evaluating, or null.
+
+	private static final ThreadLocal<AtomicReaderContext> SEGMENT = new ThreadLocal<AtomicReaderContext>();
+
+	/**
+	 * Turn on segment-parallel evaluation.
+	 *
+	 * @param threads
+	 *            The number of worker threads.
+	 */
+	public static void enable(int threads) {
+		pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * @return True if queries on the open index are split by segment.
+	 */
+	public static boolean isEnabled() {
+		return pool != null && QryEval.READER != null
+				&& QryEval.READER.leaves().size() > 1;
+	}
+
+	/**
+	 * Stop the worker threads.
+	 */
+	public static void shutdown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	/**
+	 * @return The segment that the current thread is evaluating, or null if
+	 *         it is evaluating the whole index.
+	 */
+	public static AtomicReaderContext current() {
+		return SEGMENT.get();
+	}
+
+	/**
+	 * Run a task with the current thread evaluating a segment.
+	 *
+	 * @param segment
+	 *            The segment, or null for the whole index.
+	 * @param task
+	 *            The task.
+	 * @return The result of the task.
+	 * @throws Exception
+	 */
+	public static <T> T callIn(AtomicReaderContext segment, Callable<T> task)
+			throws Exception {
+		AtomicReaderContext previous = SEGMENT.get();
+		SEGMENT.set(segment);
+		try {
+			return task.call();
+		} finally {
+			SEGMENT.set(previous);
+		}
+	}
+
+	/**
+	 * Evaluate a query on every segment and merge the results.
+	 *
+	 * @param q
+	 *            The query.
+	 * @param r
+	 *            A retrieval model that controls how the operators behave.
+	 * @param documentAtATime
+	 *            Whether each segment is evaluated document at a time.
+	 * @param k
+	 *            The number of top documents to return.
+	 * @return The top k documents of the index, best first.
+	 * @throws IOException
+	 */
+	public static ScoreList evaluate(final Qryop q, final RetrievalModel r,
+			final boolean documentAtATime, int k) throws IOException {
+
+		List<Future<ScoreList>> results = new ArrayList<Future<ScoreList>>();
+		for (final AtomicReaderContext segment : QryEval.READER.leaves())
+			results.add(pool.submit(new Callable<ScoreList>() {
+
+				@Override
+				public ScoreList call() throws Exception {
+					return callIn(segment, new Callable<ScoreList>() {
+
+						@Override
+						public ScoreList call() throws IOException {
+							if (documentAtATime && q instanceof QryopSl)
+								return QryEval.retrieveLargestMinHeap(OperatorProfile
+										.scoreCursor((QryopSl) q, r));
+							return QryEval.retrieveLargestMinHeap(OperatorProfile
+									.evaluate(q, r).docScores);
+						}
+
+					});
+				}
+
+			}));
+
+		TopKCollector collector = new TopKCollector(k,
+				QryEval.EXTERNAL_ID_ORDINALS);
+		for (Future<ScoreList> result : results)
+			collector.collect(get(result));
+		return collector.topDocs();
+	}
+
+	/**
+	 * Wait for a segment's result, rethrowing the IOException that it failed
+	 * with.
+	 */
+	private static ScoreList get(Future<ScoreList> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The inverted list operators (SYN, NEAR/n, WINDOW/n) that occur more than
+ * once among a window of queries, within one query or across queries. Each
+ * of them is evaluated the first time it is needed, and every other
+ * occurrence reuses the result. Subtrees are matched by their canonical
+ * string, so #SYN(a b) and #SYN(b a) are the same subtree.
+ *
+ * A query is passed to add() when it enters the window, before it is
+ * evaluated, and to release() when it has been evaluated. A subtree is
+ * only evaluated for sharing if another query in the window, or another
+ * part of the same query, also contains it, and its result is dropped when
+ * the last query that contains it is released. So the results held depend
+ * on the size of the window, not on the number of queries. The queries may
+ * be evaluated by several threads; a subtree that is needed by two threads
+ * at once is evaluated by one and waited for by the other.
+ *
+ * Results are held in the compressed format of {@link CompressedInvList},
+ * and at most a given number of bytes of them are held at once. A subtree
+ * whose result does not fit is evaluated normally, until enough results
+ * have been released for it to fit. Only
+ * an occurrence that needs the whole inverted list evaluates a subtree for
+ * sharing; a cursor that may skip most of the list reads a shared result
+ * if there already is one, and otherwise evaluates the subtree lazily.
+ *
+ */
+public class SharedSubtrees {
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final long maxBytes;
+	private long bytes = 0;
+	private long reused = 0;
+
+	/**
+	 * @param maxBytes
+	 *            The maximum size of the results held, in bytes.
+	 */
+	public SharedSubtrees(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Count the subtrees of a query that has entered the window.
+	 *
+	 * @param q
+	 *            A parsed query.
+	 */
+	public synchronized void add(Qryop q) {
+
+		if (q instanceof QryopIl && !q.args.isEmpty()) {
+			String key = q.toCanonicalString();
+			Entry entry = this.entries.get(key);
+			if (entry == null)
+				this.entries.put(key, new Entry());
+			else
+				entry.remaining++;
+		}
+
+		for (Qryop arg : q.args)
+			add(arg);
+	}
+
+	/**
+	 * Uncount the subtrees of a query that has been evaluated, dropping the
+	 * results that no query in the window needs any more.
+	 *
+	 * @param q
+	 *            A query that was passed to add().
+	 */
+	public synchronized void release(Qryop q) {
+
+		if (q instanceof QryopIl && !q.args.isEmpty()) {
+			String key = q.toCanonicalString();
+			Entry entry = this.entries.get(key);
+			if (entry != null && --entry.remaining == 0) {
+				this.entries.remove(key);
+				if (entry.list != null)
+					this.bytes -= entry.list.ramBytesUsed();
+			}
+		}
+
+		for (Qryop arg : q.args)
+			release(arg);
+	}
+
+	/**
+	 * Return a cursor on the result of a subtree. If the result is held, the
+	 * cursor reads it. Otherwise, if build is true, the subtree is needed
+	 * more than once in the window and its result fits, it is evaluated and
+	 * held.
+	 *
+	 * @param q
+	 *            The subtree.
+	 * @param r
+	 *            A retrieval model that controls how the operator behaves.
+	 * @param build
+	 *            Whether the subtree may be evaluated to share its result.
+	 * @return A new cursor, positioned before the first posting, or null if
+	 *         the subtree is not shared.
+	 * @throws IOException
+	 */
+	public PostingsCursor get(QryopIl q, RetrievalModel r, boolean build)
+			throws IOException {
+
+		if (q.args.isEmpty())
+			return null;
+
+		String key = q.toCanonicalString();
+		Entry entry;
+
+		synchronized (this) {
+			entry = this.entries.get(key);
+			if (entry == null)
+				return null;
+			if (entry.list != null) {
+				this.reused++;
+				Metrics.SHARED_SUBTREE_REUSES.increment();
+				return entry.list.cursor();
+			}
+			if (!build || entry.remaining < 2 || !fits(entry.rejectedBytes))
+				return null;
+		}
+
+		synchronized (entry) {
+			synchronized (this) {
+				if (entry.list != null) {
+					this.reused++;
+					Metrics.SHARED_SUBTREE_REUSES.increment();
+					return entry.list.cursor();
+				}
+				if (!fits(entry.rejectedBytes))
+					return null;
+			}
+
+			// The size of a result is only known once it is compressed. If
+			// it does not fit, its size is remembered so that it is not
+			// compressed again until enough results have been released.
+
+			CompressedInvList list = new CompressedInvList(q.openCursor(r));
+			long size = list.ramBytesUsed();
+			synchronized (this) {
+				if (fits(size)) {
+					this.bytes += size;
+					entry.list = list;
+					entry.rejectedBytes = 0;
+				} else {
+					entry.rejectedBytes = size;
+				}
+			}
+			return list.cursor();
+		}
+	}
+
+	private synchronized boolean fits(long size) {
+		return this.bytes + size <= this.maxBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "shared subtrees: " + this.reused + " evaluations saved";
+	}
+
+	private static final class Entry {
+
+		// Occurrences in the queries that have not been released.
+
+		int remaining = 1;
+		CompressedInvList list;
+
+		// The size of the result the last time that it did not fit, or 0.
+
+		long rejectedBytes = 0;
+	}
+}
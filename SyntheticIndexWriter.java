@@ -0,0 +1,235 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Writes a synthetic index and query sets for benchmarking, so that query
+ * latency can be measured without a real collection. The same options and
+ * seed always produce the same index and queries.
+ *
+ * The vocabulary is a list of made-up terms whose frequencies follow a Zipf
+ * distribution: the term of rank k is drawn with probability proportional
+ * to 1 / k^s. Document lengths are log-normal around a mean length. Every
+ * document has a body and a title, which are analyzed the same way as
+ * queries, and a stored externalId; document lengths are stored as norms by
+ * {@link DocLenStoreSimilarity}, as in the course indexes.
+ *
+ * One query file is written per query shape, for example and.qry for AND
+ * queries. Query terms are drawn from the same distribution as document
+ * terms. The shapes are term, title (a term in the title field), and, or,
+ * syn, near (#NEAR/3 of two terms), and nested (#AND of a term, an #OR and a
+ * #NEAR/2).
+ *
+ * Options are given as key=value arguments after the two paths:
+ *
+ * <pre>
+ * docs=100000          number of documents
+ * vocabulary=50000     number of distinct terms
+ * zipf=1.0             exponent s of the term distribution
+ * meanLength=300       mean body length, in terms
+ * lengthSigma=0.5      spread of body lengths (0 for a fixed length)
+ * titleLength=5        mean title length, in terms
+ * queries=1000         queries per shape
+ * seed=42              random seed
+ * </pre>
+ *
+ */
+public class SyntheticIndexWriter {
+
+	private static final String[] SHAPES = { "term", "title", "and", "or",
+			"syn", "near", "nested" };
+
+	private int docs = 100000;
+	private int vocabulary = 50000;
+	private double zipf = 1.0;
+	private int meanLength = 300;
+	private double lengthSigma = 0.5;
+	private int titleLength = 5;
+	private int queries = 1000;
+
+	private Random random = new Random(42);
+
+	// cumulative[k] is the probability of drawing a term of rank k or less.
+
+	private double[] cumulative;
+
+	/**
+	 * @param args
+	 *            The index path, the query directory, and options.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			System.err.println("Usage:  java SyntheticIndexWriter "
+					+ "indexPath queryDirectory [key=value ...]");
+			System.exit(1);
+		}
+
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 2; i < args.length; i++) {
+			String[] pair = args[i].split("=");
+			options.put(pair[0].trim(), pair[1].trim());
+		}
+
+		SyntheticIndexWriter writer = new SyntheticIndexWriter();
+		if (options.containsKey("docs"))
+			writer.docs = Integer.parseInt(options.get("docs"));
+		if (options.containsKey("vocabulary"))
+			writer.vocabulary = Integer.parseInt(options.get("vocabulary"));
+		if (options.containsKey("zipf"))
+			writer.zipf = Double.parseDouble(options.get("zipf"));
+		if (options.containsKey("meanLength"))
+			writer.meanLength = Integer.parseInt(options.get("meanLength"));
+		if (options.containsKey("lengthSigma"))
+			writer.lengthSigma = Double.parseDouble(options.get("lengthSigma"));
+		if (options.containsKey("titleLength"))
+			writer.titleLength = Integer.parseInt(options.get("titleLength"));
+		if (options.containsKey("queries"))
+			writer.queries = Integer.parseInt(options.get("queries"));
+		if (options.containsKey("seed"))
+			writer.random = new Random(Long.parseLong(options.get("seed")));
+
+		long start = System.currentTimeMillis();
+		writer.writeIndex(new File(args[0]));
+		writer.writeQueries(new File(args[1]));
+		System.out.println("time: " + (System.currentTimeMillis() - start)
+				/ 1000);
+	}
+
+	/**
+	 * Write the index, replacing any index that is already there.
+	 *
+	 * @param path
+	 *            The index directory.
+	 * @throws IOException
+	 */
+	public void writeIndex(File path) throws IOException {
+
+		this.cumulative = new double[this.vocabulary];
+		double sum = 0;
+		for (int k = 0; k < this.vocabulary; k++) {
+			sum += 1 / Math.pow(k + 1, this.zipf);
+			this.cumulative[k] = sum;
+		}
+		for (int k = 0; k < this.vocabulary; k++)
+			this.cumulative[k] /= sum;
+
+		// External ids are a permutation of the docids, so that their order
+		// differs from docid order, as it does in real collections.
+
+		int[] externalIds = new int[this.docs];
+		for (int i = 0; i < this.docs; i++)
+			externalIds[i] = i;
+		for (int i = this.docs - 1; i > 0; i--) {
+			int j = this.random.nextInt(i + 1);
+			int id = externalIds[i];
+			externalIds[i] = externalIds[j];
+			externalIds[j] = id;
+		}
+
+		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_43,
+				QryEval.analyzer);
+		config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+		config.setSimilarity(new DocLenStoreSimilarity());
+		IndexWriter writer = new IndexWriter(FSDirectory.open(path), config);
+
+		// The body's mean is meanLength: a log-normal variable exp(mu +
+		// sigma * z) has mean exp(mu + sigma^2 / 2).
+
+		double mu = Math.log(this.meanLength) - this.lengthSigma
+				* this.lengthSigma / 2;
+
+		for (int d = 0; d < this.docs; d++) {
+			int length = (int) Math.max(1, Math.round(Math.exp(mu
+					+ this.lengthSigma * this.random.nextGaussian())));
+			int titleLength = 1 + this.random.nextInt(2 * this.titleLength - 1);
+
+			Document doc = new Document();
+			doc.add(new StringField("externalId", String.format(
+					"synthetic-%08d", externalIds[d]), Field.Store.YES));
+			doc.add(new TextField("body", text(length), Field.Store.NO));
+			doc.add(new TextField("title", text(titleLength), Field.Store.NO));
+			writer.addDocument(doc);
+		}
+
+		writer.close();
+	}
+
+	/**
+	 * Write one query file per shape. The index must have been written
+	 * first, by the same object.
+	 *
+	 * @param directory
+	 *            The directory of the query files.
+	 * @throws IOException
+	 */
+	public void writeQueries(File directory) throws IOException {
+
+		directory.mkdirs();
+
+		for (String shape : SHAPES) {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(new File(
+					directory, shape + ".qry")));
+			for (int i = 1; i <= this.queries; i++)
+				writer.write(i + ":" + query(shape) + "\n");
+			writer.close();
+		}
+	}
+
+	private String query(String shape) {
+		if (shape.equals("term"))
+			return term();
+		if (shape.equals("title"))
+			return term() + ".title";
+		if (shape.equals("and"))
+			return "#AND(" + text(2 + this.random.nextInt(3)) + ")";
+		if (shape.equals("or"))
+			return "#OR(" + text(2 + this.random.nextInt(3)) + ")";
+		if (shape.equals("syn"))
+			return "#SYN(" + text(2 + this.random.nextInt(3)) + ")";
+		if (shape.equals("near"))
+			return "#NEAR/3(" + text(2) + ")";
+		return "#AND(" + term() + " #OR(" + text(2) + ") #NEAR/2(" + text(2)
+				+ "))";
+	}
+
+	/**
+	 * @return The given number of random terms, separated by spaces.
+	 */
+	private String text(int length) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			if (i > 0)
+				text.append(' ');
+			text.append(term());
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Draw a term from the Zipf distribution. A term is a letter followed by
+	 * its rank in base 36, which analysis leaves unchanged and which cannot
+	 * be a stopword.
+	 */
+	private String term() {
+		int k = Arrays.binarySearch(this.cumulative, this.random.nextDouble());
+		if (k < 0)
+			k = -k - 1;
+		return "z" + Integer.toString(Math.min(k, this.vocabulary - 1), 36);
+	}
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+
+/**
+ * Collects the k best documents of a ranking with a bounded min heap. Higher
+ * scores rank first, and ties are broken by external id using precomputed
+ * {@link ExternalIdOrdinals}, so collecting a document never reads stored
+ * fields. The heap is kept in parallel primitive arrays, so no objects are
+ * allocated per document.
+ *
+ */
+public class TopKCollector {
+
+	private int k;
+	private ExternalIdOrdinals order;
+
+	// The heap. The worst of the best documents so far is on top.
+
+	private int[] docids;
+	private double[] scores;
+	private int[] ordinals;
+	private int size = 0;
+
+	/**
+	 * @param k
+	 *            The number of documents to keep.
+	 * @param order
+	 *            The external id ordinals used to break ties.
+	 */
+	public TopKCollector(int k, ExternalIdOrdinals order) {
+		this.k = k;
+		this.order = order;
+		this.docids = new int[k];
+		this.scores = new double[k];
+		this.ordinals = new int[k];
+	}
+
+	/**
+	 * Offer a document to the collector.
+	 *
+	 * @param docid
+	 *            An internal document id.
+	 * @param score
+	 *            The document's score.
+	 * @return true if the document is among the best k so far.
+	 */
+	public boolean collect(int docid, double score) {
+
+		int ordinal = this.order.get(docid);
+
+		if (this.size < this.k) {
+			siftUp(this.size++, docid, score, ordinal);
+			return true;
+		}
+
+		if (this.k == 0
+				|| compare(score, ordinal, this.scores[0], this.ordinals[0]) >= 0)
+			return false;
+
+		siftDown(this.size, docid, score, ordinal);
+		return true;
+	}
+
+	/**
+	 * Collect every document of a cursor. Once the heap is full, the cursor
+	 * is told the lowest score that can still get in, so that it can skip
+	 * documents that cannot.
+	 *
+	 * @param input
+	 *            A cursor that has not been started.
+	 * @throws IOException
+	 */
+	public void collect(ScoreCursor input) throws IOException {
+
+		double minCompetitiveScore = Double.NEGATIVE_INFINITY;
+
+		while (input.nextDoc() != ScoreCursor.NO_MORE_DOCS) {
+			if (collect(input.docID(), input.score()) && this.size == this.k
+					&& this.scores[0] > minCompetitiveScore) {
+				minCompetitiveScore = this.scores[0];
+				input.setMinCompetitiveScore(minCompetitiveScore);
+			}
+		}
+	}
+
+	/**
+	 * Collect every document of a score list.
+	 *
+	 * @param input
+	 *            The score list.
+	 */
+	public void collect(ScoreList input) {
+		for (int i = 0; i < input.size(); i++)
+			collect(input.getDocid(i), input.getDocidScore(i));
+	}
+
+	/**
+	 * Return the collected documents, best first. The collector is empty
+	 * afterwards.
+	 *
+	 * @return The best k documents.
+	 */
+	public ScoreList topDocs() {
+
+		// Take the documents off the heap worst first, and fill the result
+		// from the back.
+
+		int n = this.size;
+		int[] resultDocids = new int[n];
+		double[] resultScores = new double[n];
+
+		for (int i = n - 1; i >= 0; i--) {
+			resultDocids[i] = this.docids[0];
+			resultScores[i] = this.scores[0];
+			this.size--;
+			siftDown(this.size, this.docids[this.size],
+					this.scores[this.size], this.ordinals[this.size]);
+		}
+
+		ScoreList result = new ScoreList();
+		for (int i = 0; i < n; i++)
+			result.add(resultDocids[i], resultScores[i]);
+
+		return result;
+	}
+
+	/**
+	 * @return negative if the first document ranks before the second.
+	 */
+	private static int compare(double score0, int ordinal0, double score1,
+			int ordinal1) {
+		if (score0 != score1)
+			return Double.compare(score1, score0);
+		return Integer.compare(ordinal0, ordinal1);
+	}
+
+	/**
+	 * Put an entry at index i and move it up to its place.
+	 */
+	private void siftUp(int i, int docid, double score, int ordinal) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (compare(this.scores[parent], this.ordinals[parent], score,
+					ordinal) >= 0)
+				break;
+			move(parent, i);
+			i = parent;
+		}
+		set(i, docid, score, ordinal);
+	}
+
+	/**
+	 * Put an entry at the root of a heap of the given size and move it down
+	 * to its place.
+	 */
+	private void siftDown(int size, int docid, double score, int ordinal) {
+		int i = 0;
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size
+					&& compare(this.scores[child + 1],
+							this.ordinals[child + 1], this.scores[child],
+							this.ordinals[child]) > 0)
+				child++;
+			if (compare(this.scores[child], this.ordinals[child], score,
+					ordinal) <= 0)
+				break;
+			move(child, i);
+			i = child;
+		}
+		set(i, docid, score, ordinal);
+	}
+
+	private void move(int from, int to) {
+		this.docids[to] = this.docids[from];
+		this.scores[to] = this.scores[from];
+		this.ordinals[to] = this.ordinals[from];
+	}
+
+	private void set(int i, int docid, double score, int ordinal) {
+		this.docids[i] = docid;
+		this.scores[i] = score;
+		this.ordinals[i] = ordinal;
+	}
+}